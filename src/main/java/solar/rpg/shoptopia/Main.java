@@ -4,9 +4,11 @@ import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.plugin.java.JavaPlugin;
 import solar.rpg.shoptopia.data.Handler;
-import solar.rpg.shoptopia.data.Showcase;
+import solar.rpg.shoptopia.player.ChunkListener;
 import solar.rpg.shoptopia.player.Commands;
 import solar.rpg.shoptopia.player.ShopListener;
+import solar.rpg.shoptopia.player.StockListener;
+import solar.rpg.shoptopia.player.TamperListener;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -23,8 +25,17 @@ public class Main extends JavaPlugin {
     /* Keep a static instance of the logger after enabling so all classes can log. */
     private static Logger logger;
 
-    /* Showcase event listeners. */
-    private ShopListener ADMIN_SHOP_LISTENER, PLAYER_SHOP_LISTENER;
+    /* Showcase event listener, shared by admin and player showcases. */
+    private ShopListener SHOP_LISTENER;
+
+    /* Showcase anti-tamper listener. */
+    private TamperListener TAMPER_LISTENER;
+
+    /* Showcase chunk lifecycle listener. */
+    private ChunkListener CHUNK_LISTENER;
+
+    /* Player showcase stock listener. */
+    private StockListener STOCK_LISTENER;
 
     /* Showcase data handler. */
     private Handler HANDLER;
@@ -46,20 +57,23 @@ public class Main extends JavaPlugin {
         logger = getLogger();
         log(Level.FINE, String.format("Enabling Shoptopia v%s!", getDescription().getVersion()));
 
+        // Write out the default configuration if there is none yet.
+        saveDefaultConfig();
+
         // Setup showcase handler.
         HANDLER = new Handler(this);
 
-        // Create anonymous shop listener classes for both kinds of showcases.
-        ADMIN_SHOP_LISTENER = new ShopListener(this) {
-            protected Showcase[] getShowcases() {
-                return getHandler().getShowcases();
-            }
-        };
-        PLAYER_SHOP_LISTENER = new ShopListener(this) {
-            protected Showcase[] getShowcases() {
-                return getHandler().getPlayerShowcases();
-            }
-        };
+        // Create a single shop listener which dispatches for both kinds of showcases.
+        SHOP_LISTENER = new ShopListener(this);
+
+        // Guard every showcase drop against tampering.
+        TAMPER_LISTENER = new TamperListener(this);
+
+        // Spawn and release showcase drops as their chunks load and unload.
+        CHUNK_LISTENER = new ChunkListener(this);
+
+        // Keep the cached stock of player showcases up to date.
+        STOCK_LISTENER = new StockListener(this);
 
         // Setup commands handler.
         COMMANDS = new Commands(this);
@@ -77,22 +91,21 @@ public class Main extends JavaPlugin {
     }
 
     public void onDisable() {
+        // Let queued economy transactions finish before their showcases go away.
+        HANDLER.getTransactions().shutdown();
+        HANDLER.getStore().shutdown();
+        HANDLER.saveSnapshot();
+        HANDLER.getJournal().close();
+        HANDLER.flushStats();
         HANDLER.destroyShowcases();
         log(Level.INFO, "Showcases have been destroyed. Goodbye!");
     }
 
     /**
-     * @return Instance of the admin shop listener.
-     */
-    public ShopListener getAdminShopListener() {
-        return ADMIN_SHOP_LISTENER;
-    }
-
-    /**
-     * @return Instance of the player shop lsitener.
+     * @return Instance of the shop listener.
      */
-    public ShopListener getPlayerShopListener() {
-        return PLAYER_SHOP_LISTENER;
+    public ShopListener getShopListener() {
+        return SHOP_LISTENER;
     }
 
     /**
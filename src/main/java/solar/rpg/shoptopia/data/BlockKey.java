@@ -0,0 +1,96 @@
+package solar.rpg.shoptopia.data;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Utility class which packs a block position into a single long.
+ * The top 4 bits hold a small world index, followed by 8 bits of Y,
+ * then 26 bits each of X and Z. 26 signed bits reach 33,554,431 blocks either
+ * way, which covers the 30 million block world border, and avoids allocating
+ * a Location for every lookup.
+ * <p>
+ * Worlds are only given an index once a showcase is placed in them, so at most
+ * 15 worlds may hold showcases. Positions in any other world are packed with
+ * index 0, which never matches the key of a showcase.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see Clickspace
+ * @since 1.1
+ */
+public final class BlockKey {
+
+    /* Largest world index which fits in a key. */
+    private static final int MAX_WORLDS = 15;
+
+    /* Index of each world holding showcases, by world UID. */
+    private static final ConcurrentHashMap<UUID, Integer> WORLDS = new ConcurrentHashMap<>();
+
+    private BlockKey() {
+    }
+
+    /**
+     * Looks up the index of a world. Worlds are keyed by UID, so a world
+     * that was unloaded and loaded again keeps its index.
+     *
+     * @param world A world.
+     * @return The world's index, from 1 to 15, or 0 if no showcase was ever placed in it.
+     */
+    public static int worldIndex(World world) {
+        Integer index = WORLDS.get(world.getUID());
+        return index == null ? 0 : index;
+    }
+
+    /**
+     * Assigns an index to a world that a showcase is being placed in, if it has none yet.
+     *
+     * @param world A world.
+     * @return The world's index, from 1 to 15.
+     * @throws IllegalStateException Showcases are already placed in too many worlds.
+     */
+    public static synchronized int register(World world) {
+        Integer index = WORLDS.get(world.getUID());
+        if (index != null) return index;
+        if (WORLDS.size() == MAX_WORLDS)
+            throw new IllegalStateException("Too many worlds with showcases to index: " + world.getName());
+        WORLDS.put(world.getUID(), WORLDS.size() + 1);
+        return WORLDS.size();
+    }
+
+    /**
+     * @param world A world index.
+     * @param x     Block X-coordinate.
+     * @param y     Block Y-coordinate.
+     * @param z     Block Z-coordinate.
+     * @return The packed key of the block position.
+     */
+    public static long pack(int world, int x, int y, int z) {
+        return ((long) world << 60) | ((long) (y & 0xFF) << 52) | ((long) (x & 0x3FFFFFF) << 26) | (z & 0x3FFFFFFL);
+    }
+
+    /**
+     * @see #pack(int, int, int, int)
+     */
+    public static long of(World world, int x, int y, int z) {
+        return pack(worldIndex(world), x, y, z);
+    }
+
+    /**
+     * @see #pack(int, int, int, int)
+     */
+    public static long of(Location loc) {
+        return of(loc.getWorld(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+    }
+
+    /**
+     * @see #pack(int, int, int, int)
+     */
+    public static long of(Block block) {
+        return of(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+}
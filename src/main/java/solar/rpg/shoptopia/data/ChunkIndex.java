@@ -0,0 +1,192 @@
+package solar.rpg.shoptopia.data;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * ChunkIndex groups every live showcase by the chunk it is in.
+ * Showcases only ever sit in a handful of chunks, so a single probe
+ * with the chunk coordinates of a location answers whether anything
+ * interesting is in that chunk. The (tiny) bucket is then checked
+ * for a showcase sharing the same X/Z column.
+ * <p>
+ * For the hottest events, a compact bitmap of occupied chunks is kept on
+ * the side. Each chunk hashes to one bit, so testing it costs a multiply,
+ * a shift and a bit test, and rejects almost every chunk on the server.
+ * Chunks sharing a bit merely fall through to the real lookup.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see Showcase
+ * @since 1.1
+ */
+public class ChunkIndex {
+
+    /* Number of bits in the occupied chunk bitmap, as a power of two. */
+    private static final int FILTER_BITS = 14;
+
+    /* Showcases per packed chunk coordinate, separately for each world. */
+    private final HashMap<World, HashMap<Long, Showcase[]>> CHUNKS;
+
+    /* Bitmap of chunks with at least one showcase, and how many occupied chunks share each bit. */
+    private final long[] OCCUPIED;
+    private final char[] OCCUPIED_COUNT;
+
+    ChunkIndex() {
+        CHUNKS = new HashMap<>();
+        OCCUPIED = new long[(1 << FILTER_BITS) >>> 6];
+        OCCUPIED_COUNT = new char[1 << FILTER_BITS];
+    }
+
+    /**
+     * Packs a pair of chunk coordinates into a single key.
+     *
+     * @param chunkX Chunk X-coordinate.
+     * @param chunkZ Chunk Z-coordinate.
+     * @return The packed chunk key.
+     */
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param world  A world index.
+     * @param chunkX Chunk X-coordinate.
+     * @param chunkZ Chunk Z-coordinate.
+     * @return The bit of the chunk in the occupied chunk bitmap.
+     * @see BlockKey#worldIndex(World)
+     */
+    private static int filterBit(int world, int chunkX, int chunkZ) {
+        return ((chunkX * 0x9E3779B1) ^ (chunkZ * 0x85EBCA77) ^ (world * 0xC2B2AE35)) >>> (32 - FILTER_BITS);
+    }
+
+    /**
+     * Checks the occupied chunk bitmap. False positives are possible, false negatives are not.
+     *
+     * @param world  The world the chunk is in.
+     * @param chunkX Chunk X-coordinate.
+     * @param chunkZ Chunk Z-coordinate.
+     * @return False if there is definitely no showcase in the chunk.
+     */
+    public boolean isOccupied(World world, int chunkX, int chunkZ) {
+        int index = BlockKey.worldIndex(world);
+        if (index == 0) return false;
+        int bit = filterBit(index, chunkX, chunkZ);
+        return (OCCUPIED[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Updates the occupied chunk bitmap when a chunk gains its first, or loses its last showcase.
+     *
+     * @param world    The world the chunk is in.
+     * @param chunkX   Chunk X-coordinate.
+     * @param chunkZ   Chunk Z-coordinate.
+     * @param occupied True if the chunk has become occupied.
+     */
+    private void setOccupied(World world, int chunkX, int chunkZ, boolean occupied) {
+        int bit = filterBit(BlockKey.worldIndex(world), chunkX, chunkZ);
+        if (occupied) OCCUPIED_COUNT[bit]++;
+        else OCCUPIED_COUNT[bit]--;
+        if (OCCUPIED_COUNT[bit] == 0)
+            OCCUPIED[bit >>> 6] &= ~(1L << bit);
+        else
+            OCCUPIED[bit >>> 6] |= 1L << bit;
+    }
+
+    /**
+     * Adds a showcase into the bucket of the chunk it is located in.
+     *
+     * @param sc The showcase to index.
+     */
+    void add(Showcase sc) {
+        Location pos = sc.getPosition();
+        HashMap<Long, Showcase[]> chunks = CHUNKS.computeIfAbsent(pos.getWorld(), world -> new HashMap<>());
+        long key = chunkKey(pos.getBlockX() >> 4, pos.getBlockZ() >> 4);
+        Showcase[] bucket = chunks.get(key);
+        if (bucket == null) {
+            bucket = new Showcase[]{sc};
+            setOccupied(pos.getWorld(), pos.getBlockX() >> 4, pos.getBlockZ() >> 4, true);
+        } else {
+            Showcase[] grown = new Showcase[bucket.length + 1];
+            System.arraycopy(bucket, 0, grown, 0, bucket.length);
+            grown[bucket.length] = sc;
+            bucket = grown;
+        }
+        chunks.put(key, bucket);
+    }
+
+    /**
+     * Removes a showcase from the bucket of the chunk it is located in.
+     *
+     * @param sc The showcase to remove.
+     */
+    void remove(Showcase sc) {
+        Location pos = sc.getPosition();
+        HashMap<Long, Showcase[]> chunks = CHUNKS.get(pos.getWorld());
+        if (chunks == null) return;
+        long key = chunkKey(pos.getBlockX() >> 4, pos.getBlockZ() >> 4);
+        Showcase[] bucket = chunks.get(key);
+        if (bucket == null) return;
+
+        // Copy every other showcase into a smaller bucket.
+        int index = -1;
+        for (int i = 0; i < bucket.length; i++)
+            if (bucket[i] == sc) index = i;
+        if (index == -1) return;
+        if (bucket.length == 1) {
+            chunks.remove(key);
+            setOccupied(pos.getWorld(), pos.getBlockX() >> 4, pos.getBlockZ() >> 4, false);
+            return;
+        }
+        Showcase[] shrunk = new Showcase[bucket.length - 1];
+        System.arraycopy(bucket, 0, shrunk, 0, index);
+        System.arraycopy(bucket, index + 1, shrunk, index, bucket.length - index - 1);
+        chunks.put(key, shrunk);
+    }
+
+    /**
+     * Removes every showcase from the index.
+     */
+    void clear() {
+        CHUNKS.clear();
+        Arrays.fill(OCCUPIED, 0L);
+        Arrays.fill(OCCUPIED_COUNT, (char) 0);
+    }
+
+    /**
+     * @param world A world.
+     * @return True if there is at least one showcase in the world.
+     */
+    public boolean hasWorld(World world) {
+        HashMap<Long, Showcase[]> chunks = CHUNKS.get(world);
+        return chunks != null && !chunks.isEmpty();
+    }
+
+    /**
+     * @param world  The world the chunk is in.
+     * @param chunkX Chunk X-coordinate.
+     * @param chunkZ Chunk Z-coordinate.
+     * @return Showcases located in the chunk, or null if there are none.
+     */
+    public Showcase[] getShowcases(World world, int chunkX, int chunkZ) {
+        HashMap<Long, Showcase[]> chunks = CHUNKS.get(world);
+        if (chunks == null) return null;
+        return chunks.get(chunkKey(chunkX, chunkZ));
+    }
+
+    /**
+     * @param loc A location.
+     * @return The showcase sharing the X/Z column of the location, otherwise null.
+     * @see Showcase#matchXZ(Location, Location)
+     */
+    public Showcase getShowcaseAt(Location loc) {
+        Showcase[] bucket = getShowcases(loc.getWorld(), loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+        if (bucket != null)
+            for (Showcase sc : bucket)
+                if (Showcase.matchXZ(sc.getPosition(), loc)) return sc;
+        return null;
+    }
+}
@@ -0,0 +1,158 @@
+package solar.rpg.shoptopia.data;
+
+import java.util.Arrays;
+
+/**
+ * Clickspace is a set of block positions where a click from a player can
+ * activate a showcase action. Positions are packed into a long (see BlockKey)
+ * and stored in an open-addressing map with linear probing, so a lookup is a
+ * single probe sequence over primitive arrays and allocates nothing.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see BlockKey
+ * @since 1.1
+ */
+public class Clickspace {
+
+    /* Marks an empty slot. Showcase positions never pack to 0, as their world index is at least 1. */
+    private static final long EMPTY = 0L;
+
+    /* Parallel arrays of keys and showcases. Length is always a power of two. */
+    private long[] KEYS;
+    private Showcase[] VALUES;
+    private int SIZE;
+
+    public Clickspace() {
+        this(32);
+    }
+
+    /**
+     * @param expected Amount of positions expected to be mapped.
+     */
+    public Clickspace(int expected) {
+        // Smallest power of two which keeps the table at most half full.
+        int capacity = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+        KEYS = new long[capacity];
+        VALUES = new Showcase[capacity];
+    }
+
+    /**
+     * Spreads the bits of a packed key, since neighbouring blocks only differ in the low bits.
+     *
+     * @param key  A packed block key.
+     * @param mask Table length minus one.
+     * @return The starting slot for the key.
+     */
+    private static int slot(long key, int mask) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    /**
+     * @param key A packed block key.
+     * @return The showcase at this position, or null if there is none.
+     */
+    public Showcase get(long key) {
+        int mask = KEYS.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long found = KEYS[i];
+            if (found == key) return VALUES[i];
+            if (found == EMPTY) return null;
+        }
+    }
+
+    /**
+     * Maps a position to a showcase, replacing any existing mapping.
+     *
+     * @param key A packed block key.
+     * @param sc  The showcase.
+     */
+    public void put(long key, Showcase sc) {
+        // Keep the table at most half full so probe sequences stay short.
+        if ((SIZE + 1) * 2 > KEYS.length)
+            resize(KEYS.length * 2);
+        int mask = KEYS.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            if (KEYS[i] == key) {
+                VALUES[i] = sc;
+                return;
+            }
+            if (KEYS[i] == EMPTY) {
+                KEYS[i] = key;
+                VALUES[i] = sc;
+                SIZE++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the mapping for a position, if there is one.
+     *
+     * @param key A packed block key.
+     * @return The showcase that was removed, otherwise null.
+     */
+    public Showcase remove(long key) {
+        int mask = KEYS.length - 1;
+        int i = slot(key, mask);
+        while (KEYS[i] != key) {
+            if (KEYS[i] == EMPTY) return null;
+            i = (i + 1) & mask;
+        }
+        Showcase removed = VALUES[i];
+
+        // Shift later entries of the probe sequence back, so no tombstones are needed.
+        for (int next = (i + 1) & mask; KEYS[next] != EMPTY; next = (next + 1) & mask) {
+            int home = slot(KEYS[next], mask);
+            if (((next - home) & mask) >= ((next - i) & mask)) {
+                KEYS[i] = KEYS[next];
+                VALUES[i] = VALUES[next];
+                i = next;
+            }
+        }
+        KEYS[i] = EMPTY;
+        VALUES[i] = null;
+        SIZE--;
+        return removed;
+    }
+
+    /**
+     * Re-inserts every mapping into larger arrays.
+     *
+     * @param capacity New table length, a power of two.
+     */
+    private void resize(int capacity) {
+        long[] oldKeys = KEYS;
+        Showcase[] oldValues = VALUES;
+        KEYS = new long[capacity];
+        VALUES = new Showcase[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == EMPTY) continue;
+            int i = slot(oldKeys[j], mask);
+            while (KEYS[i] != EMPTY)
+                i = (i + 1) & mask;
+            KEYS[i] = oldKeys[j];
+            VALUES[i] = oldValues[j];
+        }
+    }
+
+    /**
+     * Removes every mapping from the clickspace.
+     */
+    public void clear() {
+        Arrays.fill(KEYS, EMPTY);
+        Arrays.fill(VALUES, null);
+        SIZE = 0;
+    }
+
+    /**
+     * @return The amount of mapped positions.
+     */
+    public int size() {
+        return SIZE;
+    }
+}
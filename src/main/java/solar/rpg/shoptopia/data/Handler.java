@@ -1,18 +1,39 @@
 package solar.rpg.shoptopia.data;
 
 import net.milkbowl.vault.economy.Economy;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.persistence.PersistentDataType;
 import org.bukkit.plugin.RegisteredServiceProvider;
 import solar.rpg.shoptopia.Main;
+import solar.rpg.skyblock.island.Island;
 import solar.rpg.skyblock.stored.Database;
+import solar.rpg.skyblock.stored.Settings;
 
-import java.util.Collection;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 
 /**
@@ -26,6 +47,13 @@ import java.util.logging.Level;
  */
 public class Handler {
 
+    /* How often to look for idle islands, in ticks. */
+    private static final long EVICTION_INTERVAL = 20 * 30;
+
+    /* Order of the player showcase snapshot: by owning island, then by position. */
+    private static final Comparator<Showcase> PLAYER_ORDER = Comparator.comparingInt(Showcase::getOwnerID)
+            .thenComparingLong(sc -> BlockKey.of(sc.getPosition()));
+
     /* Store reference of JavaPlugin + Skytopia Database implementation */
     private final Main PLUGIN;
     private final Database DB;
@@ -33,63 +61,581 @@ public class Handler {
     /* Store reference of Loader. */
     private final Loader LOADER;
 
+    /* Index of showcase columns by chunk, shared by both kinds of showcases. */
+    private final ChunkIndex INDEX;
+
+    /* Persistent data key which marks an entity as a showcase drop. */
+    private final NamespacedKey SHOWCASE_KEY;
+
     /* Stores admin showcases and player-made showcases. */
     private Showcase[] SHOWCASES;
-    private HashMap<Integer, Showcase[]> PLAYER_SHOWCASES;
+    private HashMap<Integer, IslandShowcases> PLAYER_SHOWCASES;
+
+    /* Copy-on-write snapshot of all player showcases, in PLAYER_ORDER. */
+    private volatile Showcase[] PLAYER_SNAPSHOT;
+
+    /* Maximum amount of player showcases per island. */
+    private int MAX_SHOWCASES;
+
+    /* Maximum amount of lots that can be bought or sold at once. */
+    private int MAX_LOTS;
+
+    /* Kind of renderer used to display showcase icons. */
+    private ShowcaseRenderer.Type RENDERER;
+
+    /* Display radius and sweep interval the showcases were built with. */
+    private int RADIUS, SWEEP_INTERVAL;
+
+    /* Islands whose player showcases are being read from the database. */
+    private final Set<Integer> LOADING;
+
+    /* Set once the database tables have been checked, so islands can be read. */
+    private volatile boolean TABLES_CHECKED;
+
+    /* Islands which were used before the tables were checked, to be loaded once they are. Main thread only. */
+    private final Set<Integer> DEFERRED;
+
+    /* How long an island can go unused before its player showcases are unloaded, in milliseconds. */
+    private long IDLE_TIMEOUT;
+
+    /* Reload in progress. Null if showcases are not being reloaded. */
+    private CompletableFuture<Boolean> RELOADING;
+
+    /* Snapshot of every loaded showcase, used for fast warm starts. */
+    private final File SNAPSHOT_FILE;
+    /* Whether snapshots are taken and used. */
+    private boolean SNAPSHOTS;
+    /* Set once showcases have been loaded for the first time. */
+    private boolean STARTED;
+    /* Version of shops.xml and revision of the Shops table that the showcases were last read from. */
+    private volatile long XML_MODIFIED;
+    private volatile byte[] XML_HASH;
+    private volatile long REVISION = -1;
+
+    /* Puts showcases on display only near players. Null if showcases are always displayed. */
+    private ProximitySweeper SWEEPER;
 
     /* Instance of server economy utility. */
     private Economy ECON;
 
+    /* Runs economy transactions off the main thread. */
+    private final Transactions TRANSACTIONS;
+
+    /* Sales counters of every showcase and island. */
+    private final Stats STATS;
+
+    /* Writes player showcase changes to the database in the background. */
+    private final ShowcaseStore STORE;
+
+    /* Journal of every purchase and sale. */
+    private final Journal JOURNAL;
+
+    /* Player-facing messages, loaded from messages.yml. */
+    private final Messages MESSAGES;
+
+    /* Owners and members of the islands player showcases are on. */
+    private final IslandCache ISLANDS;
+
+    /* Limits how often each player can preview or trade with showcases. */
+    private final Throttle PREVIEW_THROTTLE;
+    private final Throttle TRANSACTION_THROTTLE;
+
     public Handler(Main PLUGIN) {
         this.PLUGIN = PLUGIN;
         this.DB = solar.rpg.skyblock.Main.instance.main().sql().db;
         LOADER = new Loader();
+        INDEX = new ChunkIndex();
+        // Showcases are loaded in the background, so start with none rather than null.
+        SHOWCASES = new Showcase[0];
+        PLAYER_SHOWCASES = new HashMap<>();
+        SHOWCASE_KEY = new NamespacedKey(PLUGIN, "showcase");
+        TRANSACTIONS = new Transactions(PLUGIN);
+        STATS = new Stats();
+        long flush = Math.max(1, PLUGIN.getConfig().getLong("stats.flush-interval", 300)) * 20;
+        Bukkit.getScheduler().runTaskTimerAsynchronously(PLUGIN, () -> STATS.flush(DB), flush, flush);
+        SNAPSHOT_FILE = new File(PLUGIN.getDataFolder(), "showcases.snapshot");
+        LOADING = ConcurrentHashMap.newKeySet();
+        DEFERRED = new HashSet<>();
+        Bukkit.getScheduler().runTaskTimer(PLUGIN, this::unloadIdleIslands, EVICTION_INTERVAL, EVICTION_INTERVAL);
+        STORE = new ShowcaseStore(DB);
+        long persist = Math.max(1, PLUGIN.getConfig().getLong("persistence.flush-interval", 20));
+        Bukkit.getScheduler().runTaskTimer(PLUGIN, STORE::flush, persist, persist);
+        JOURNAL = new Journal(new File(PLUGIN.getDataFolder(), "journal"), PLUGIN.getConfig().getInt("journal.segment-size", 8));
+        if (PLUGIN.getConfig().getBoolean("journal.enabled", true))
+            JOURNAL.start();
+        MESSAGES = new Messages();
+        ISLANDS = new IslandCache();
+        PREVIEW_THROTTLE = new Throttle();
+        TRANSACTION_THROTTLE = new Throttle();
     }
 
     /**
-     * Destroys local instances of existing showcases, if any.
-     * Loads in admin showcases from XML and player showcases from the database.
+     * Reloads the configuration, then loads admin showcases from XML and player showcases from the database.
+     * On startup, the showcases in the last snapshot are put up first, and the snapshot is then checked
+     * against both sources instead of reading them again, where they have not changed.
+     * Both sources are read in parallel off the main thread. Once both are read, they are compared
+     * with the existing showcases by position on the main thread. Unchanged showcases are left alone,
+     * showcases which only trade differently are updated in place, and only showcases which were added,
+     * removed or look different are destroyed or built. Every showcase is rebuilt if the display settings changed.
+     * If a reload is already in progress, that reload is returned instead.
+     *
+     * @return Completes on the main thread once the showcases are built, with false if player showcases could not be loaded.
      */
-    public boolean reload() {
-        destroyShowcases();
+    public CompletableFuture<Boolean> reload() {
+        if (RELOADING != null) return RELOADING;
+        long start = System.nanoTime();
+        Main.log(Level.INFO, "Loading showcases...");
 
-        // Parse .xml configuration for admin showcases.
-        SHOWCASES = LOADER.loadAdminShowcases(PLUGIN).toArray(new Showcase[0]);
-        Main.log(Level.FINE, "Configuration scan complete! Discovered " + SHOWCASES.length + " admin showcases!");
+        // Read the configured per-island showcase limit before any islands are registered.
+        PLUGIN.reloadConfig();
+        MESSAGES.reload(PLUGIN);
+        MAX_SHOWCASES = Math.max(1, PLUGIN.getConfig().getInt("player-showcases.max-per-island", 12));
+        MAX_LOTS = Math.max(1, PLUGIN.getConfig().getInt("bulk.max-lots", 64));
+        SNAPSHOTS = PLUGIN.getConfig().getBoolean("snapshot.enabled", true);
+        IDLE_TIMEOUT = Math.max(0, PLUGIN.getConfig().getLong("player-showcases.idle-timeout", 600)) * 1000;
+        ISLANDS.configure(PLUGIN.getConfig().getLong("cache.island-ttl", 30));
+        STORE.configure(PLUGIN.getConfig().getInt("persistence.batch-size", 64));
+        PREVIEW_THROTTLE.configure(PLUGIN.getConfig().getDouble("throttle.previews.rate", 4),
+                PLUGIN.getConfig().getInt("throttle.previews.burst", 4));
+        TRANSACTION_THROTTLE.configure(PLUGIN.getConfig().getDouble("throttle.transactions.rate", 2),
+                PLUGIN.getConfig().getInt("throttle.transactions.burst", 4));
+        String renderer = PLUGIN.getConfig().getString("display.renderer", "ITEM");
+        ShowcaseRenderer.Type type;
+        try {
+            type = ShowcaseRenderer.Type.valueOf(renderer.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            Main.log(Level.WARNING, "Unknown showcase renderer " + renderer + ", falling back to item drops.");
+            type = ShowcaseRenderer.Type.ITEM;
+        }
+        ShowcaseRenderer.Type newRenderer = type;
+        int radius = Math.max(0, PLUGIN.getConfig().getInt("display.radius", 0));
+        int interval = Math.max(1, PLUGIN.getConfig().getInt("display.sweep-interval", 20));
 
-        // Attempt to create database table if it doesn't exist.
-        if (LOADER.checkTables(DB)) {
-            // Parse database table for player showcases.
-            PLAYER_SHOWCASES = LOADER.loadPlayerShowcases(PLUGIN, DB);
-            Main.log(Level.FINE, "Database table scan complete! Discovered " + PLAYER_SHOWCASES.size() + " islands with existing showcases!");
-        } else {
-            Main.log(Level.SEVERE, "Unable to check database table. Skipping player showcases... ");
-            return false;
+        // Only islands which are loaded or in use are read, the rest are loaded once they are used.
+        Set<Integer> queried = getActiveIslands();
+        queried.addAll(PLAYER_SHOWCASES.keySet());
+        World islandWorld = Bukkit.getWorld(Settings.ADMIN_WORLD_ID);
+        if (islandWorld != null)
+            for (Chunk chunk : islandWorld.getLoadedChunks()) {
+                Island island = solar.rpg.skyblock.Main.instance.main().islands().getIslandAt(chunk.getBlock(0, 0, 0).getLocation());
+                if (island != null)
+                    queried.add(island.getID());
+            }
+
+        // On startup, put up the showcases from the last snapshot straight away, then check it in the background.
+        Snapshot warm = null;
+        if (!STARTED && SNAPSHOTS) {
+            long began = System.nanoTime();
+            warm = Snapshot.read(SNAPSHOT_FILE);
+            if (warm != null) {
+                List<ShowcaseRecord> playerRecords = new ArrayList<>();
+                for (List<ShowcaseRecord> island : warm.getIslands().values())
+                    playerRecords.addAll(island);
+                apply(warm.getAdmin(), playerRecords, warm.getIslands().keySet(), Collections.emptySet(), newRenderer, radius, interval);
+                queried.addAll(warm.getIslands().keySet());
+                Main.log(Level.INFO, String.format("Put up %d admin showcases and %d player showcases from the snapshot in %d ms.",
+                        warm.getAdmin().size(), playerRecords.size(), elapsed(began)));
+            }
         }
-        return true;
+        STARTED = true;
+        Snapshot snapshot = warm;
+
+        // Parse .xml configuration for admin showcases, and query the database for player showcases, at the same time.
+        Executor async = task -> Bukkit.getScheduler().runTaskAsynchronously(PLUGIN, task);
+        File xml = new File(PLUGIN.getDataFolder(), "shops.xml");
+        CompletableFuture<List<ShowcaseRecord>> admin = CompletableFuture.supplyAsync(() -> {
+            long began = System.nanoTime();
+            if (snapshot != null && snapshot.matchesXml(xml)) {
+                Main.log(Level.INFO, "Configuration is unchanged since the snapshot was taken.");
+                XML_MODIFIED = snapshot.getXmlModified();
+                XML_HASH = snapshot.getXmlHash();
+                return snapshot.getAdmin();
+            }
+
+            // Remember which version of the file is read, before it is read.
+            XML_MODIFIED = xml.lastModified();
+            try {
+                XML_HASH = Snapshot.hash(xml);
+            } catch (IOException ex) {
+                XML_HASH = null;
+            }
+            List<ShowcaseRecord> records = LOADER.readAdminShowcases(PLUGIN.getDataFolder());
+            Main.log(Level.INFO, String.format("Configuration scan complete! Discovered %d admin showcases in %d ms.", records.size(), elapsed(began)));
+            return records;
+        }, async);
+
+        // Player showcase changes which have not been written yet would be missing from the table,
+        // and changes made while it is read may or may not be in it, so those are left as they are.
+        Set<Long> changed = STORE.watch();
+        CompletableFuture<List<ShowcaseRecord>> players = STORE.flush().thenApplyAsync(ignored -> {
+            long began = System.nanoTime();
+
+            // Attempt to create database table if it doesn't exist.
+            if (!LOADER.checkTables(DB)) {
+                Main.log(Level.SEVERE, "Unable to check database table. Skipping player showcases... ");
+                return null;
+            }
+            TABLES_CHECKED = true;
+
+            // Remember which revision of the table is read, before it is read.
+            try {
+                REVISION = Loader.readRevision(DB);
+            } catch (SQLException ex) {
+                REVISION = -1;
+            }
+
+            // Islands in an up to date snapshot do not need to be read again.
+            List<ShowcaseRecord> records = new ArrayList<>();
+            Set<Integer> unread = new HashSet<>(queried);
+            if (snapshot != null && REVISION >= 0 && REVISION == snapshot.getRevision()) {
+                for (Map.Entry<Integer, List<ShowcaseRecord>> island : snapshot.getIslands().entrySet())
+                    if (unread.remove(island.getKey()))
+                        records.addAll(island.getValue());
+                Main.log(Level.INFO, String.format("Database table is unchanged since the snapshot was taken, %d islands left to read.", unread.size()));
+            }
+            List<ShowcaseRecord> read = LOADER.readPlayerShowcases(DB, unread);
+            if (read == null) return null;
+            records.addAll(read);
+            Main.log(Level.INFO, String.format("Database table scan complete! Discovered %d player showcases on %d islands in %d ms.", read.size(), unread.size(), elapsed(began)));
+            return records;
+        }, async);
+
+        // Apply the showcases on the main thread once both are read. Failures are handled
+        // on the main thread as well, so whoever waits on the reload is always called back there.
+        Executor sync = task -> Bukkit.getScheduler().runTask(PLUGIN, task);
+        RELOADING = CompletableFuture.allOf(admin, players).handleAsync((ignored, failure) -> {
+            try {
+                if (failure != null) {
+                    Main.log(Level.SEVERE, "Unable to load showcases: " + failure);
+                    return false;
+                }
+                List<ShowcaseRecord> playerRecords = players.join();
+                apply(admin.join(), playerRecords, queried, changed, newRenderer, radius, interval);
+                Main.log(Level.INFO, String.format("Reload took %d ms in total.", elapsed(start)));
+
+                // Take a snapshot of what was just loaded, for the next startup.
+                if (playerRecords != null && SNAPSHOTS) {
+                    Snapshot taken = takeSnapshot(REVISION);
+                    if (taken != null)
+                        async.execute(() -> writeSnapshot(taken));
+                }
+                return playerRecords != null;
+            } catch (RuntimeException ex) {
+                Main.log(Level.SEVERE, "Unable to load showcases: " + ex);
+                return false;
+            } finally {
+                STORE.unwatch(changed);
+                RELOADING = null;
+
+                // Islands used while the tables were being checked can be loaded now.
+                if (TABLES_CHECKED && !DEFERRED.isEmpty()) {
+                    List<Integer> deferred = new ArrayList<>(DEFERRED);
+                    DEFERRED.clear();
+                    for (Integer islandID : deferred)
+                        loadIsland(islandID);
+                }
+            }
+        }, sync);
+        return RELOADING;
+    }
+
+    /**
+     * Compares loaded showcase records with the existing showcases by position.
+     * Unchanged showcases are left alone, showcases which only trade differently are
+     * updated in place, and only showcases which were added, removed or look different
+     * are destroyed or built. Every showcase is rebuilt if the display settings changed.
+     * Player showcases at positions changed since the records were read are left as they are.
+     * Must be called on the main thread.
+     *
+     * @param adminRecords  Admin showcases.
+     * @param playerRecords Player showcases of the queried islands, or null if they could not be read.
+     * @param queried       IDs of the islands whose player showcases were read.
+     * @param changed       Packed positions of player showcases created or removed while the records were read.
+     * @param renderer      Kind of renderer to display showcases with.
+     * @param radius        Display radius, or 0 to always display showcases.
+     * @param interval      Proximity sweep interval, in ticks.
+     */
+    private void apply(List<ShowcaseRecord> adminRecords, List<ShowcaseRecord> playerRecords, Set<Integer> queried,
+                       Set<Long> changed, ShowcaseRenderer.Type renderer, int radius, int interval) {
+        long began = System.nanoTime();
+
+        // Every showcase has a renderer of the old kind, so a new kind means starting over.
+        if (renderer != RENDERER || radius != RADIUS || interval != SWEEP_INTERVAL) {
+            destroyShowcases();
+            RENDERER = renderer;
+            RADIUS = radius;
+            SWEEP_INTERVAL = interval;
+
+            // Start sweeping for nearby players if showcases are displayed lazily.
+            if (radius > 0) {
+                SWEEPER = new ProximitySweeper(INDEX, radius);
+                SWEEPER.runTaskTimer(PLUGIN, interval, interval);
+            }
+        }
+
+        // Index the existing showcases by position.
+        HashMap<Long, Showcase> current = new HashMap<>();
+        for (Showcase sc : SHOWCASES)
+            current.put(BlockKey.of(sc.getPosition()), sc);
+        HashMap<Integer, IslandShowcases> islands = new HashMap<>();
+        for (Map.Entry<Integer, IslandShowcases> entry : PLAYER_SHOWCASES.entrySet()) {
+            // Keep islands which were not read, either because the table could not be read, or they were loaded since.
+            boolean keep = playerRecords == null || !queried.contains(entry.getKey());
+            if (keep)
+                islands.computeIfAbsent(entry.getKey(), id -> new IslandShowcases(MAX_SHOWCASES));
+            for (Showcase sc : entry.getValue().getShowcases()) {
+                if (keep && handlePlayerShowcase(islands, sc.getOwnerID(), sc)) continue;
+                current.put(BlockKey.of(sc.getPosition()), sc);
+            }
+        }
+
+        // Islands which were read are loaded, even if they have no showcases.
+        if (playerRecords != null)
+            for (Integer islandID : queried)
+                islands.computeIfAbsent(islandID, id -> new IslandShowcases(MAX_SHOWCASES));
+
+        int kept = 0, updated = 0, built = 0;
+        List<Showcase> adminShowcases = new ArrayList<>(adminRecords.size());
+        List<ShowcaseRecord> records = new ArrayList<>(adminRecords);
+        if (playerRecords != null)
+            records.addAll(playerRecords);
+        for (ShowcaseRecord record : records) {
+            // The record may be older than what is on display, which is kept below.
+            long key = record.getKey();
+            if (record.getOwnerID() != -1 && changed.contains(key)) continue;
+            Showcase sc = current.remove(key);
+            switch (sc == null ? ShowcaseRecord.Change.DISPLAY : record.compare(sc)) {
+                case NONE:
+                    kept++;
+                    break;
+                case TRADE:
+                    record.update(sc);
+                    updated++;
+                    break;
+                case DISPLAY:
+                    // The old showcase goes first, so that it does not take the new one's clickspace with it.
+                    if (sc != null)
+                        sc.destroy();
+                    sc = record.build(PLUGIN);
+                    built++;
+            }
+            if (record.getOwnerID() == -1)
+                adminShowcases.add(sc);
+            else if (!handlePlayerShowcase(islands, record.getOwnerID(), sc)) {
+                // The per-island limit has been lowered since this showcase was made.
+                Main.log(Level.WARNING, String.format("Island #%d has more showcases than allowed, skipping showcase at %s.", record.getOwnerID(), record.getCoordinates()));
+                sc.destroy();
+            }
+        }
+
+        // Whatever is left over no longer exists, unless it was created while the records were read.
+        Iterator<Map.Entry<Long, Showcase>> leftover = current.entrySet().iterator();
+        while (leftover.hasNext()) {
+            Map.Entry<Long, Showcase> entry = leftover.next();
+            Showcase sc = entry.getValue();
+            if (!sc.isAdminShop() && changed.contains(entry.getKey()) && handlePlayerShowcase(islands, sc.getOwnerID(), sc))
+                leftover.remove();
+            else
+                sc.destroy();
+        }
+        SHOWCASES = adminShowcases.toArray(new Showcase[0]);
+        PLAYER_SHOWCASES = islands;
+        invalidatePlayerSnapshot();
+        ISLANDS.clear();
+        Main.log(Level.INFO, String.format("Kept %d showcases, updated %d, built %d and removed %d in %d ms.",
+                kept, updated, built, current.size(), elapsed(began)));
+    }
+
+    /**
+     * Records every loaded showcase. Must be called on the main thread.
+     *
+     * @param revision Revision of the Shops table the player showcases were read at, or older.
+     * @return The snapshot, or null if the loaded showcases may not match shops.xml and the Shops table.
+     */
+    private Snapshot takeSnapshot(long revision) {
+        if (revision < 0 || XML_HASH == null || !STORE.isSynced()) return null;
+        List<ShowcaseRecord> admin = new ArrayList<>(SHOWCASES.length);
+        for (Showcase sc : SHOWCASES)
+            admin.add(ShowcaseRecord.of(sc));
+        Map<Integer, List<ShowcaseRecord>> islands = new HashMap<>();
+        for (Map.Entry<Integer, IslandShowcases> entry : PLAYER_SHOWCASES.entrySet()) {
+            List<ShowcaseRecord> records = new ArrayList<>();
+            for (Showcase sc : entry.getValue().getShowcases())
+                records.add(ShowcaseRecord.of(sc));
+            islands.put(entry.getKey(), records);
+        }
+        return new Snapshot(XML_MODIFIED, XML_HASH, revision, admin, islands);
+    }
+
+    /**
+     * @param snapshot A snapshot to write to the data folder.
+     */
+    private void writeSnapshot(Snapshot snapshot) {
+        long began = System.nanoTime();
+        try {
+            snapshot.write(SNAPSHOT_FILE);
+            Main.log(Level.FINE, String.format("Wrote showcase snapshot in %d ms.", elapsed(began)));
+        } catch (IOException ex) {
+            Main.log(Level.WARNING, "Unable to write showcase snapshot: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Takes a snapshot of every loaded showcase for the next startup, once every player
+     * showcase change has been written. If some changes could not be written, the old
+     * snapshot is deleted instead, since it may no longer match the Shops table.
+     * Must be called on the main thread, after the store has been shut down.
+     */
+    public void saveSnapshot() {
+        if (!SNAPSHOTS || !STARTED) return;
+        Snapshot taken = null;
+        if (TABLES_CHECKED && STORE.isSynced())
+            try {
+                taken = takeSnapshot(Loader.readRevision(DB));
+            } catch (SQLException ex) {
+                Main.log(Level.WARNING, "Unable to read the Shops table revision: " + ex.getMessage());
+            }
+        if (taken != null)
+            writeSnapshot(taken);
+        else if (SNAPSHOT_FILE.exists() && !SNAPSHOT_FILE.delete())
+            Main.log(Level.WARNING, "Unable to delete the outdated showcase snapshot!");
+    }
+
+    /**
+     * @param start A System#nanoTime() timestamp.
+     * @return Milliseconds since the timestamp.
+     */
+    private static long elapsed(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * Loads the player showcases of an island in the background, unless they are already loaded.
+     * Islands used before the database tables are checked are loaded once a reload has checked them.
+     * Must be called on the main thread.
+     *
+     * @param islandID An island's ID.
+     */
+    public void loadIsland(int islandID) {
+        IslandShowcases loaded = PLAYER_SHOWCASES.get(islandID);
+        if (loaded != null) {
+            loaded.touch(System.currentTimeMillis());
+            return;
+        }
+        if (!TABLES_CHECKED) {
+            DEFERRED.add(islandID);
+            return;
+        }
+        if (!LOADING.add(islandID)) return;
+
+        // Player showcase changes which have not been written yet would be missing from the table.
+        Executor async = task -> Bukkit.getScheduler().runTaskAsynchronously(PLUGIN, task);
+        Executor sync = task -> Bukkit.getScheduler().runTask(PLUGIN, task);
+        // Changes made while it is read may or may not be in it, so those positions are skipped.
+        Set<Long> changed = STORE.watch();
+        STORE.flush().thenApplyAsync(ignored -> LOADER.readPlayerShowcases(DB, Collections.singleton(islandID)), async).thenAcceptAsync(records -> {
+            // A reload may have loaded the island in the meantime.
+            if (records == null || PLAYER_SHOWCASES.containsKey(islandID)) return;
+            IslandShowcases island = new IslandShowcases(MAX_SHOWCASES);
+            PLAYER_SHOWCASES.put(islandID, island);
+            for (ShowcaseRecord record : records) {
+                if (changed.contains(record.getKey())) continue;
+                Showcase created = record.build(PLUGIN);
+                if (!island.add(created)) {
+                    // The per-island limit has been lowered since this showcase was made.
+                    Main.log(Level.WARNING, String.format("Island #%d has more showcases than allowed, skipping showcase at %s.", islandID, record.getCoordinates()));
+                    created.destroy();
+                }
+            }
+            invalidatePlayerSnapshot();
+        }, sync).whenComplete((result, ex) -> {
+            STORE.unwatch(changed);
+            LOADING.remove(islandID);
+            if (ex != null)
+                Main.log(Level.WARNING, String.format("Unable to load showcases of island #%d: %s", islandID, ex));
+        });
+    }
+
+    /**
+     * @param islandID An island's ID.
+     * @return True if the island's player showcases are loaded.
+     */
+    public boolean isIslandLoaded(int islandID) {
+        return PLAYER_SHOWCASES.containsKey(islandID);
+    }
+
+    /**
+     * Unloads the player showcases of islands which have had no members online,
+     * and no showcases in loaded chunks, for longer than the idle timeout.
+     */
+    private void unloadIdleIslands() {
+        if (IDLE_TIMEOUT == 0 || PLAYER_SHOWCASES.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        Set<Integer> active = getActiveIslands();
+        int unloaded = 0;
+        Iterator<Map.Entry<Integer, IslandShowcases>> it = PLAYER_SHOWCASES.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, IslandShowcases> entry = it.next();
+            IslandShowcases island = entry.getValue();
+            if (active.contains(entry.getKey()) || island.isAnyChunkLoaded())
+                island.touch(now);
+            else if (now - island.getLastActive() >= IDLE_TIMEOUT) {
+                // The island's totals are kept, but its showcases' own counters start over when it is next loaded.
+                for (Showcase sc : island.getShowcases()) {
+                    STATS.forget(sc);
+                    sc.destroy();
+                }
+                it.remove();
+                ISLANDS.invalidate(entry.getKey());
+                unloaded++;
+            }
+        }
+        if (unloaded > 0) {
+            invalidatePlayerSnapshot();
+            Main.log(Level.FINE, String.format("Unloaded the showcases of %d idle islands.", unloaded));
+        }
+    }
+
+    /**
+     * @return IDs of the islands which have a member online.
+     */
+    private Set<Integer> getActiveIslands() {
+        Set<Integer> result = new HashSet<>();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            Island island = solar.rpg.skyblock.Main.instance.main().islands().getIsland(player.getUniqueId());
+            if (island != null)
+                result.add(island.getID());
+        }
+        return result;
     }
 
     /**
      * Destroy all locally-created showcase instances.
      */
     public void destroyShowcases() {
+        // Stop the proximity sweeper, if any, before its showcases are gone.
+        if (SWEEPER != null)
+            SWEEPER.stop();
+        SWEEPER = null;
+
         // Destroy admin shop showcases.
         if (SHOWCASES != null)
             for (Showcase sc : SHOWCASES)
                 sc.destroy();
-        SHOWCASES = null;
-        PLUGIN.getAdminShopListener().getClickspace().clear();
+        SHOWCASES = new Showcase[0];
 
         // Destroy player shop showcases.
         if (PLAYER_SHOWCASES != null) {
-            for (Showcase[] set : PLAYER_SHOWCASES.values())
-                for (Showcase showcase : set)
-                    if (showcase != null)
-                        showcase.destroy();
+            for (IslandShowcases island : PLAYER_SHOWCASES.values())
+                for (Showcase showcase : island.getShowcases())
+                    showcase.destroy();
             PLAYER_SHOWCASES.clear();
         }
-        PLAYER_SHOWCASES = null;
-        PLUGIN.getPlayerShopListener().getClickspace().clear();
+        PLAYER_SHOWCASES = new HashMap<>();
+        invalidatePlayerSnapshot();
+        PLUGIN.getShopListener().getClickspace().clear();
+        INDEX.clear();
+        ISLANDS.clear();
     }
 
     /**
@@ -111,16 +657,41 @@ public class Handler {
     }
 
     /**
-     * @param loc       A location.
-     * @param showcases An array of showcases.
-     * @return A showcase if one exists at the location, otherwise null.
+     * @param islandID An island's ID.
+     * @param loc      A showcase location.
+     * @return The island's showcase at the location if one exists, otherwise null.
      */
-    public Showcase isShowcaseAt(Location loc, Showcase... showcases) {
-        if (showcases != null)
-            for (Showcase sc : showcases)
-                if (sc != null)
-                    if (loc.equals(sc.getPosition())) return sc;
-        return null;
+    public Showcase getPlayerShowcaseAt(Integer islandID, Location loc) {
+        IslandShowcases island = PLAYER_SHOWCASES.get(islandID);
+        return island == null ? null : island.get(BlockKey.of(loc));
+    }
+
+    /**
+     * @return True if showcases are only displayed while a player is nearby.
+     * @see ProximitySweeper
+     */
+    public boolean isLazyDisplay() {
+        return SWEEPER != null;
+    }
+
+    /**
+     * @return A new renderer of the configured kind, for a single showcase.
+     */
+    ShowcaseRenderer createRenderer() {
+        if (RENDERER == ShowcaseRenderer.Type.STAND)
+            return new StandRenderer(SHOWCASE_KEY);
+        return new ItemRenderer(SHOWCASE_KEY);
+    }
+
+    /**
+     * Showcase drops are tagged when they are spawned, so this check does not
+     * need to hold on to any entities. <em>Stale drops are tagged as well.</em>
+     *
+     * @param entity An entity.
+     * @return True if the entity was spawned as a showcase drop.
+     */
+    public boolean isShowcaseDrop(Entity entity) {
+        return entity.getPersistentDataContainer().has(SHOWCASE_KEY, PersistentDataType.BYTE);
     }
 
     /**
@@ -142,50 +713,61 @@ public class Handler {
      * @param oldCase  The showcase to remove.
      */
     public void removePlayerShowcase(Integer islandID, Showcase oldCase) {
-        if (PLAYER_SHOWCASES.containsKey(islandID)) {
-            // Find index of old showcase and remove it from the island's array.
-            for (int i = 0; i < PLAYER_SHOWCASES.get(islandID).length; i++)
-                if (PLAYER_SHOWCASES.get(islandID)[i] != null)
-                    if (PLAYER_SHOWCASES.get(islandID)[i].getPosition().equals(oldCase.getPosition()))
-                        PLAYER_SHOWCASES.get(islandID)[i] = null;
-        } else {
-            // Create empty array for this island.
-            Showcase[] showcases = new Showcase[12];
-            PLAYER_SHOWCASES.put(islandID, showcases);
+        IslandShowcases island = PLAYER_SHOWCASES.get(islandID);
+        if (island == null || !island.remove(oldCase)) return;
+
+        // Patch the snapshot rather than rebuilding it.
+        Showcase[] snapshot = PLAYER_SNAPSHOT;
+        if (snapshot != null) {
+            Showcase[] patched = new Showcase[snapshot.length - 1];
+            for (int i = 0, j = 0; i < snapshot.length; i++)
+                if (snapshot[i] != oldCase)
+                    patched[j++] = snapshot[i];
+            PLAYER_SNAPSHOT = patched;
         }
     }
 
     /**
      * Adds a new player showcase into the existing PLAYER_SHOWCASES map.
      *
+     * @return False if the island has no room left for the showcase.
      * @see #handlePlayerShowcase(HashMap, Integer, Showcase)
      */
-    public void addPlayerShowcase(Integer islandID, Showcase newCase) {
-        handlePlayerShowcase(PLAYER_SHOWCASES, islandID, newCase);
+    public boolean addPlayerShowcase(Integer islandID, Showcase newCase) {
+        if (!handlePlayerShowcase(PLAYER_SHOWCASES, islandID, newCase)) return false;
+
+        // Patch the snapshot rather than rebuilding it, keeping it in order.
+        Showcase[] snapshot = PLAYER_SNAPSHOT;
+        if (snapshot != null) {
+            int index = Arrays.binarySearch(snapshot, newCase, PLAYER_ORDER);
+            if (index < 0) index = -index - 1;
+            Showcase[] patched = new Showcase[snapshot.length + 1];
+            System.arraycopy(snapshot, 0, patched, 0, index);
+            patched[index] = newCase;
+            System.arraycopy(snapshot, index, patched, index + 1, snapshot.length - index);
+            PLAYER_SNAPSHOT = patched;
+        }
+        return true;
+    }
+
+    /**
+     * Drops the player showcase snapshot, so it is rebuilt on its next read.
+     */
+    private void invalidatePlayerSnapshot() {
+        PLAYER_SNAPSHOT = null;
     }
 
     /**
-     * Inserts a showcase into an island's showcase array.
-     * Creates the array if it does not exist already.
-     * <em>The map of island IDs and showcase arrays must be provided.</em>
+     * Inserts a showcase into an island's showcase registry.
+     * Creates the registry if it does not exist already.
+     * <em>The map of island IDs and showcase registries must be provided.</em>
      *
      * @param islandID An island's ID.
      * @param newCase  The created showcase.
+     * @return False if the island has no room left for the showcase.
      */
-    void handlePlayerShowcase(HashMap<Integer, Showcase[]> result, Integer islandID, Showcase newCase) {
-        if (result.containsKey(islandID)) {
-            // Adds a showcase to an island's next available index.
-            for (int i = 0; i < result.get(islandID).length; i++)
-                if (result.get(islandID)[i] == null) {
-                    result.get(islandID)[i] = newCase;
-                    return;
-                }
-        } else {
-            // Creates the showcase array for the island, places the showcase in the first index.
-            Showcase[] showcases = new Showcase[12];
-            showcases[0] = newCase;
-            result.put(islandID, showcases);
-        }
+    boolean handlePlayerShowcase(HashMap<Integer, IslandShowcases> result, Integer islandID, Showcase newCase) {
+        return result.computeIfAbsent(islandID, id -> new IslandShowcases(MAX_SHOWCASES)).add(newCase);
     }
 
     /**
@@ -193,13 +775,22 @@ public class Handler {
      * @return The amount of showcases made on the island.
      */
     public int getTotalShowcases(Integer islandID) {
-        if (!PLAYER_SHOWCASES.containsKey(islandID))
-            return 0;
-        int total = 0;
-        for (int i = 0; i < PLAYER_SHOWCASES.get(islandID).length; i++)
-            if (PLAYER_SHOWCASES.get(islandID)[i] != null)
-                total++;
-        return total;
+        IslandShowcases island = PLAYER_SHOWCASES.get(islandID);
+        return island == null ? 0 : island.size();
+    }
+
+    /**
+     * @return Maximum amount of player showcases per island.
+     */
+    public int getMaxShowcases() {
+        return MAX_SHOWCASES;
+    }
+
+    /**
+     * @return Maximum amount of lots that can be bought or sold at once.
+     */
+    public int getMaxLots() {
+        return MAX_LOTS;
     }
 
     /**
@@ -210,25 +801,111 @@ public class Handler {
     }
 
     /**
+     * The returned array is a shared snapshot, which is only rebuilt or patched
+     * when player showcases are added or removed. It is always ordered by owning
+     * island, then by position. <em>It must not be modified.</em>
+     *
      * @return All existing player-made showcases.
      */
     public Showcase[] getPlayerShowcases() {
-        Collection<Showcase[]> all = PLAYER_SHOWCASES.values();
-        Set<Showcase> total = new HashSet<>();
-        for (Showcase[] sca : all)
-            for (Showcase sc : sca)
-                if (sc != null)
-                    total.add(sc);
-        return total.toArray(new Showcase[0]);
+        Showcase[] snapshot = PLAYER_SNAPSHOT;
+        if (snapshot != null) return snapshot;
+        if (PLAYER_SHOWCASES == null) return new Showcase[0];
+
+        // Rebuild the snapshot from every island's registry.
+        List<Showcase> total = new ArrayList<>();
+        for (IslandShowcases island : PLAYER_SHOWCASES.values())
+            Collections.addAll(total, island.getShowcases());
+        snapshot = total.toArray(new Showcase[0]);
+        Arrays.sort(snapshot, PLAYER_ORDER);
+        PLAYER_SNAPSHOT = snapshot;
+        return snapshot;
     }
 
     /**
-     * @return The map of island IDs to showcase arrays.
+     * @return The map of island IDs to showcase registries.
      */
-    public HashMap<Integer, Showcase[]> getPlayerShowcasesMap() {
+    public HashMap<Integer, IslandShowcases> getPlayerShowcasesMap() {
         return PLAYER_SHOWCASES;
     }
 
+    /**
+     * @return Persistent data key which marks an entity as a showcase drop.
+     */
+    public NamespacedKey getShowcaseKey() {
+        return SHOWCASE_KEY;
+    }
+
+    /**
+     * @return The chunk index of all existing showcases.
+     */
+    public ChunkIndex getChunkIndex() {
+        return INDEX;
+    }
+
+    /**
+     * @return The economy transaction pipeline.
+     */
+    public Transactions getTransactions() {
+        return TRANSACTIONS;
+    }
+
+    /**
+     * @return Sales counters of every showcase and island.
+     */
+    public Stats getStats() {
+        return STATS;
+    }
+
+    /**
+     * Writes any sales counters which have changed since the last flush to the database.
+     */
+    public void flushStats() {
+        STATS.flush(DB);
+    }
+
+    /**
+     * @return Writes player showcase changes to the database in the background.
+     */
+    public ShowcaseStore getStore() {
+        return STORE;
+    }
+
+    /**
+     * @return The transaction journal.
+     */
+    public Journal getJournal() {
+        return JOURNAL;
+    }
+
+    /**
+     * @return Player-facing messages.
+     */
+    public Messages getMessages() {
+        return MESSAGES;
+    }
+
+    /**
+     * @return Cache of the islands player showcases are on.
+     */
+    public IslandCache getIslandCache() {
+        return ISLANDS;
+    }
+
+    /**
+     * @return Throttle for showcase price previews.
+     */
+    public Throttle getPreviewThrottle() {
+        return PREVIEW_THROTTLE;
+    }
+
+    /**
+     * @return Throttle for showcase purchases and sales.
+     */
+    public Throttle getTransactionThrottle() {
+        return TRANSACTION_THROTTLE;
+    }
+
     /**
      * @return The Vault economy instance.
      */
@@ -0,0 +1,132 @@
+package solar.rpg.shoptopia.data;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import solar.rpg.skyblock.island.Island;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Caches what player showcase interactions need to know about the island a showcase is on,
+ * so that clicks do not look up the island by location every time.
+ * Entries are keyed by the showcase's owning island ID, and hold the island's owner
+ * and the membership of every player who has interacted with its showcases.
+ * <p>
+ * Skyblock does not announce membership changes, so entries expire after a short time.
+ * An island's entry is also dropped when its showcases are created or removed,
+ * and a player's answers are dropped when they leave.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @since 1.1
+ */
+public class IslandCache {
+
+    /* Cached information, by owning island ID. */
+    private final HashMap<Integer, Entry> ENTRIES;
+
+    /* How long an entry is kept, in milliseconds. */
+    private long TTL;
+
+    IslandCache() {
+        ENTRIES = new HashMap<>();
+    }
+
+    /**
+     * @param seconds How long an entry is kept, in seconds. 0 or less disables caching.
+     */
+    void configure(long seconds) {
+        TTL = Math.max(0, seconds) * 1000;
+        ENTRIES.clear();
+    }
+
+    /**
+     * @param sc A player showcase.
+     * @return The cached entry of the showcase's island, or null if it is not on an island.
+     */
+    private Entry get(Showcase sc) {
+        long now = System.currentTimeMillis();
+        Entry entry = ENTRIES.get(sc.getOwnerID());
+        if (entry != null && now < entry.EXPIRES) return entry;
+
+        Island island = solar.rpg.skyblock.Main.instance.main().islands().getIslandAt(sc.getPosition());
+        if (island == null) {
+            ENTRIES.remove(sc.getOwnerID());
+            return null;
+        }
+        entry = new Entry(island, now + TTL);
+        if (TTL > 0)
+            ENTRIES.put(sc.getOwnerID(), entry);
+        return entry;
+    }
+
+    /**
+     * @param sc     A player showcase.
+     * @param player A player's UUID.
+     * @return True if the player is a member of the island the showcase is on.
+     */
+    public boolean isMember(Showcase sc, UUID player) {
+        Entry entry = get(sc);
+        if (entry == null) return false;
+        return entry.MEMBERS.computeIfAbsent(player, id -> entry.ISLAND.members().isMember(id));
+    }
+
+    /**
+     * @param sc A player showcase.
+     * @return The owner of the island the showcase is on, or null if it is not on an island.
+     */
+    public OfflinePlayer getOwner(Showcase sc) {
+        Entry entry = get(sc);
+        if (entry == null) return null;
+        if (entry.OWNER == null)
+            entry.OWNER = Bukkit.getOfflinePlayer(entry.ISLAND.members().getOwner());
+        return entry.OWNER;
+    }
+
+    /**
+     * Drops the cached information of an island.
+     *
+     * @param islandID The island's ID.
+     */
+    public void invalidate(int islandID) {
+        ENTRIES.remove(islandID);
+    }
+
+    /**
+     * Drops every cached membership answer about a player.
+     *
+     * @param player The player's UUID.
+     */
+    public void forget(UUID player) {
+        for (Entry entry : ENTRIES.values())
+            entry.MEMBERS.remove(player);
+    }
+
+    /**
+     * Drops everything.
+     */
+    void clear() {
+        ENTRIES.clear();
+    }
+
+    /**
+     * Cached information about a single island.
+     */
+    private static final class Entry {
+
+        private final Island ISLAND;
+        /* Membership of players who have interacted with the island's showcases. */
+        private final HashMap<UUID, Boolean> MEMBERS;
+        /* Owner of the island. Looked up on first use. */
+        private OfflinePlayer OWNER;
+        /* Time at which this entry expires, in milliseconds. */
+        private final long EXPIRES;
+
+        private Entry(Island ISLAND, long EXPIRES) {
+            this.ISLAND = ISLAND;
+            this.EXPIRES = EXPIRES;
+            MEMBERS = new HashMap<>();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package solar.rpg.shoptopia.data;
+
+/**
+ * Registry of the player showcases on a single island.
+ * Showcases are kept in a fixed number of slots, with a bitmap of free slots,
+ * a live count and an index of showcase positions. Adding, removing, counting
+ * and looking up showcases therefore never needs to scan the slots.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see Handler#addPlayerShowcase(Integer, Showcase)
+ * @since 1.1
+ */
+public class IslandShowcases {
+
+    /* Showcases on this island. A slot is null if its bit in FREE is set. */
+    private final Showcase[] SLOTS;
+    private final long[] FREE;
+    private int COUNT;
+
+    /* Index of showcase positions (see BlockKey) to showcases. */
+    private final Clickspace POSITIONS;
+
+    /* Last time the island was found to be in use, in milliseconds. */
+    private long LAST_ACTIVE;
+
+    /**
+     * @param capacity Maximum amount of showcases on the island.
+     */
+    IslandShowcases(int capacity) {
+        SLOTS = new Showcase[capacity];
+        FREE = new long[(capacity + 63) >>> 6];
+        POSITIONS = new Clickspace(capacity);
+        LAST_ACTIVE = System.currentTimeMillis();
+
+        // Mark every slot as free, without marking bits past the capacity.
+        for (int i = 0; i < FREE.length; i++)
+            FREE[i] = -1L;
+        if ((capacity & 63) != 0)
+            FREE[FREE.length - 1] = (1L << (capacity & 63)) - 1;
+    }
+
+    /**
+     * Places a showcase into the first free slot.
+     *
+     * @param sc The showcase to add.
+     * @return False if there was no free slot left for the showcase.
+     */
+    boolean add(Showcase sc) {
+        for (int i = 0; i < FREE.length; i++) {
+            if (FREE[i] == 0) continue;
+            int slot = (i << 6) + Long.numberOfTrailingZeros(FREE[i]);
+            FREE[i] &= FREE[i] - 1;
+            SLOTS[slot] = sc;
+            sc.setIslandSlot(slot);
+            POSITIONS.put(BlockKey.of(sc.getPosition()), sc);
+            COUNT++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Frees the slot of a showcase.
+     *
+     * @param sc The showcase to remove.
+     * @return False if the showcase was not on this island.
+     */
+    boolean remove(Showcase sc) {
+        int slot = sc.getIslandSlot();
+        if (slot < 0 || slot >= SLOTS.length || SLOTS[slot] != sc) return false;
+        SLOTS[slot] = null;
+        FREE[slot >>> 6] |= 1L << slot;
+        sc.setIslandSlot(-1);
+        POSITIONS.remove(BlockKey.of(sc.getPosition()));
+        COUNT--;
+        return true;
+    }
+
+    /**
+     * @param positionKey A packed showcase position.
+     * @return The showcase at this position, or null if there is none.
+     * @see BlockKey
+     */
+    public Showcase get(long positionKey) {
+        return POSITIONS.get(positionKey);
+    }
+
+    /**
+     * @return The amount of showcases on this island.
+     */
+    public int size() {
+        return COUNT;
+    }
+
+    /**
+     * @return The maximum amount of showcases on this island.
+     */
+    public int getCapacity() {
+        return SLOTS.length;
+    }
+
+    /**
+     * @return True if any showcase on this island is in a loaded chunk.
+     */
+    boolean isAnyChunkLoaded() {
+        for (Showcase sc : SLOTS)
+            if (sc != null && sc.getPosition().getWorld().isChunkLoaded(sc.getPosition().getBlockX() >> 4, sc.getPosition().getBlockZ() >> 4))
+                return true;
+        return false;
+    }
+
+    /**
+     * Marks the island as being in use.
+     *
+     * @param now The current time, in milliseconds.
+     */
+    void touch(long now) {
+        LAST_ACTIVE = now;
+    }
+
+    /**
+     * @return Last time the island was found to be in use, in milliseconds.
+     */
+    long getLastActive() {
+        return LAST_ACTIVE;
+    }
+
+    /**
+     * @return Every showcase on this island.
+     */
+    public Showcase[] getShowcases() {
+        Showcase[] result = new Showcase[COUNT];
+        int i = 0;
+        for (Showcase sc : SLOTS)
+            if (sc != null)
+                result[i++] = sc;
+        return result;
+    }
+}
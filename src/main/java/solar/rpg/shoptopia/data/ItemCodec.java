@@ -0,0 +1,139 @@
+package solar.rpg.shoptopia.data;
+
+import org.bukkit.Material;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * ItemCodec converts showcase products to and from the bytes stored in the Shops table.
+ * Every encoding starts with a version byte and a kind byte, laid out as follows:
+ * <pre>
+ *   0  byte   codec version
+ *   1  byte   kind
+ *   2  byte[] PLAIN: material name, ASCII
+ *             META:  the serialized item stack as YAML, UTF-8, deflated
+ * </pre>
+ * Items without meta are only a few bytes, much like the material names stored before.
+ * Items with meta keep everything: enchantments, names, lore, skull owners and so on.
+ * The amount is not part of the encoding; it has its own column.
+ * <p>
+ * Each codec remembers what it has decoded, so identical products are only decoded once.
+ * A codec is meant to be used for a single load and thrown away, and is not thread-safe.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see Loader
+ * @since 1.1
+ */
+public class ItemCodec {
+
+    /* Current version of the encoding. */
+    private static final byte VERSION = 1;
+    /* Kind of encoding: a bare material. */
+    private static final byte PLAIN = 0;
+    /* Kind of encoding: a deflated YAML item stack. */
+    private static final byte META = 1;
+
+    /* Decoded templates, by their encoding. */
+    private final HashMap<ByteBuffer, ItemStack> TEMPLATES;
+
+    ItemCodec() {
+        TEMPLATES = new HashMap<>();
+    }
+
+    /**
+     * @param item An item stack.
+     * @return The encoded item stack, ignoring its amount.
+     */
+    public static byte[] encode(ItemStack item) {
+        if (!item.hasItemMeta()) {
+            byte[] material = item.getType().name().getBytes(StandardCharsets.US_ASCII);
+            byte[] result = new byte[material.length + 2];
+            result[0] = VERSION;
+            result[1] = PLAIN;
+            System.arraycopy(material, 0, result, 2, material.length);
+            return result;
+        }
+
+        ItemStack single = item.clone();
+        single.setAmount(1);
+        YamlConfiguration yaml = new YamlConfiguration();
+        yaml.set("item", single);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        deflater.setInput(yaml.saveToString().getBytes(StandardCharsets.UTF_8));
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        out.write(VERSION);
+        out.write(META);
+        byte[] chunk = new byte[256];
+        while (!deflater.finished())
+            out.write(chunk, 0, deflater.deflate(chunk));
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /**
+     * @param data   An encoded item stack.
+     * @param amount Amount of the item.
+     * @return A new copy of the decoded item stack.
+     * @throws IllegalArgumentException The data is not a valid encoding.
+     */
+    ItemStack decode(byte[] data, int amount) {
+        ItemStack template = TEMPLATES.get(ByteBuffer.wrap(data));
+        if (template == null) {
+            template = decode(data);
+            TEMPLATES.put(ByteBuffer.wrap(data.clone()), template);
+        }
+        ItemStack result = template.clone();
+        result.setAmount(amount);
+        return result;
+    }
+
+    /**
+     * @param data An encoded item stack.
+     * @return The decoded item stack, with an amount of 1.
+     * @throws IllegalArgumentException The data is not a valid encoding.
+     */
+    private static ItemStack decode(byte[] data) {
+        if (data.length < 2 || data[0] != VERSION)
+            throw new IllegalArgumentException("Unknown item encoding version: " + (data.length == 0 ? "none" : data[0]));
+        switch (data[1]) {
+            case PLAIN:
+                return new ItemStack(Material.valueOf(new String(data, 2, data.length - 2, StandardCharsets.US_ASCII)));
+            case META:
+                Inflater inflater = new Inflater(true);
+                inflater.setInput(data, 2, data.length - 2);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+                byte[] chunk = new byte[512];
+                try {
+                    while (!inflater.finished()) {
+                        int read = inflater.inflate(chunk);
+                        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                            throw new IllegalArgumentException("Truncated item encoding");
+                        out.write(chunk, 0, read);
+                    }
+                    YamlConfiguration yaml = new YamlConfiguration();
+                    yaml.loadFromString(new String(out.toByteArray(), StandardCharsets.UTF_8));
+                    ItemStack item = yaml.getItemStack("item");
+                    if (item == null)
+                        throw new IllegalArgumentException("Encoded item is missing");
+                    return item;
+                } catch (DataFormatException | InvalidConfigurationException ex) {
+                    throw new IllegalArgumentException("Corrupt item encoding", ex);
+                } finally {
+                    inflater.end();
+                }
+            default:
+                throw new IllegalArgumentException("Unknown item encoding kind: " + data[1]);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package solar.rpg.shoptopia.data;
+
+import org.bukkit.Location;
+import org.bukkit.NamespacedKey;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Item;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.util.Vector;
+
+/**
+ * Displays a showcase's icon as a real item drop resting on the half slab.
+ * Item drops are ticked every tick and take part in physics and merging,
+ * so they rely on the tamper listener to keep them in place.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see solar.rpg.shoptopia.player.TamperListener
+ * @since 1.1
+ */
+class ItemRenderer implements ShowcaseRenderer {
+
+    /* Persistent data key which marks an entity as a showcase drop. */
+    private final NamespacedKey KEY;
+
+    /* Item drop displayed on showcase. */
+    private Item DROP;
+
+    ItemRenderer(NamespacedKey KEY) {
+        this.KEY = KEY;
+    }
+
+    public void show(Location position, ItemStack icon) {
+        hide();
+        DROP = position.getWorld().dropItem(position.clone().add(0.5, 0.505, 0.5), icon);
+        DROP.setVelocity(new Vector(0, -1, 0));
+        DROP.setPickupDelay(9999 * 9999);
+        DROP.setInvulnerable(true);
+        DROP.getPersistentDataContainer().set(KEY, PersistentDataType.BYTE, (byte) 1);
+    }
+
+    public void hide() {
+        if (DROP == null) return;
+        DROP.remove();
+        DROP = null;
+    }
+
+    public boolean isShown() {
+        return DROP != null && DROP.isValid() && !DROP.isDead();
+    }
+
+    public Entity getEntity() {
+        return DROP;
+    }
+}
@@ -0,0 +1,219 @@
+package solar.rpg.shoptopia.data;
+
+import org.bukkit.Location;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.inventory.ItemStack;
+import solar.rpg.shoptopia.Main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Append-only journal of every showcase purchase and sale.
+ * Records (see JournalRecord) are written one after another into memory-mapped
+ * segment files in the journal folder. When a segment is full, the next one is started.
+ * A purchase is journalled once it is paid for, and again once it is delivered or refunded,
+ * so a purchase interrupted by a crash can be found and settled by hand.
+ * The main thread only ever queues records; a single writer thread copies them into
+ * the mapped segment and flushes it to disk whenever the queue runs dry.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see JournalReader
+ * @since 1.1
+ */
+public class Journal {
+
+    /* Segment header: magic number, format version, reserved, and segment size. */
+    static final int HEADER_SIZE = 16;
+    static final int MAGIC = 0x53484A4C;
+    static final int VERSION = 2;
+
+    /* Tells the writer thread to stop. */
+    private static final JournalRecord STOP = new JournalRecord(0, null, 0, null, null, 0, 0, 0, 0, 0, 0, null);
+
+    /* Folder containing the segments. */
+    private final File DIRECTORY;
+    /* Size of a new segment in bytes. */
+    private final int SEGMENT_SIZE;
+
+    /* Next transaction ID. Starts from the time, so IDs are not reused after a restart. */
+    private final AtomicLong NEXT_TRANSACTION;
+
+    /* Records waiting to be written. */
+    private final LinkedBlockingQueue<JournalRecord> QUEUE;
+    /* Writes queued records. Null if the journal is disabled. */
+    private Thread WRITER;
+    /* Set once the journal is closed, or has failed. No more records are queued after that. */
+    private volatile boolean CLOSED;
+
+    /* Segment being written to. Only touched by the writer thread. */
+    private FileChannel CHANNEL;
+    private MappedByteBuffer SEGMENT;
+    private int SEGMENT_INDEX;
+
+    /**
+     * @param DIRECTORY    Folder containing the segments.
+     * @param SEGMENT_SIZE Size of a new segment in megabytes.
+     */
+    Journal(File DIRECTORY, int SEGMENT_SIZE) {
+        this.DIRECTORY = DIRECTORY;
+        this.SEGMENT_SIZE = Math.min(1024, Math.max(1, SEGMENT_SIZE)) << 20;
+        NEXT_TRANSACTION = new AtomicLong(System.currentTimeMillis() * 1000);
+        QUEUE = new LinkedBlockingQueue<>();
+    }
+
+    /**
+     * Starts the writer thread, continuing from the end of the latest segment.
+     */
+    void start() {
+        if (!DIRECTORY.isDirectory() && !DIRECTORY.mkdirs()) {
+            Main.log(Level.SEVERE, "Unable to create the journal folder! Transactions will not be journalled.");
+            CLOSED = true;
+            return;
+        }
+        WRITER = new Thread(this::run, "Shoptopia-Journal");
+        WRITER.setDaemon(true);
+        WRITER.start();
+    }
+
+    /**
+     * @return A new ID to share between the records of a single transaction.
+     */
+    public long begin() {
+        return NEXT_TRANSACTION.incrementAndGet();
+    }
+
+    /**
+     * Queues a record of a purchase or sale. Never blocks, and can be called from any thread.
+     *
+     * @param type        What happened.
+     * @param transaction The transaction's ID. See begin().
+     * @param player      The player who bought or sold.
+     * @param islandID    Owning island's ID of the showcase. -1 if admin shop.
+     * @param position    The showcase's location.
+     * @param data        The showcase's purchase data.
+     * @param lots        Amount of lots traded.
+     */
+    public void record(JournalRecord.Type type, long transaction, OfflinePlayer player, int islandID, Location position, PurchaseData data, int lots) {
+        if (CLOSED || WRITER == null) return;
+        UUID world = position.getWorld() == null ? new UUID(0, 0) : position.getWorld().getUID();
+        byte[] item = data.getEncodedStock();
+
+        // Items too large to journal whole are journalled by their material alone.
+        if (item.length > JournalRecord.MAX_ITEM_SIZE)
+            item = ItemCodec.encode(new ItemStack(data.getStock().getType()));
+        QUEUE.offer(new JournalRecord(System.currentTimeMillis(), type, islandID, player.getUniqueId(), world,
+                position.getBlockX(), position.getBlockY(), position.getBlockZ(),
+                data.getAmount() * lots, data.getPrice() * lots, transaction, item));
+    }
+
+    /**
+     * Writes out every queued record and stops the writer thread. Must be called on the main thread.
+     */
+    public void close() {
+        if (WRITER == null || CLOSED) return;
+        CLOSED = true;
+        QUEUE.offer(STOP);
+        try {
+            WRITER.join(10000);
+            if (WRITER.isAlive())
+                Main.log(Level.SEVERE, "Timed out waiting for the journal to be written!");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writer thread loop.
+     */
+    private void run() {
+        try {
+            List<File> segments = JournalReader.segments(DIRECTORY);
+            open(segments.isEmpty() ? 1 : JournalReader.indexOf(segments.get(segments.size() - 1)));
+            while (true) {
+                JournalRecord record = QUEUE.take();
+                if (record == STOP) break;
+                if (SEGMENT.remaining() < record.size())
+                    open(SEGMENT_INDEX + 1);
+                record.write(SEGMENT);
+
+                // Flush once there is nothing else to write.
+                if (QUEUE.isEmpty())
+                    SEGMENT.force();
+            }
+        } catch (IOException ex) {
+            CLOSED = true;
+            Main.log(Level.SEVERE, "Unable to write to the journal! Transactions will no longer be journalled: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeSegment();
+            QUEUE.clear();
+        }
+    }
+
+    /**
+     * Opens a segment for appending, creating it if it does not exist.
+     * Appending continues after the last record already in the segment.
+     * Segments of an older version are left as they are, and the next segment is opened instead.
+     *
+     * @param index The segment's index.
+     * @throws IOException If the segment cannot be mapped, or is not a journal segment.
+     */
+    private void open(int index) throws IOException {
+        closeSegment();
+        File file = JournalReader.segmentFile(DIRECTORY, index);
+        boolean existing = file.length() >= HEADER_SIZE;
+        CHANNEL = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = existing ? CHANNEL.size() : SEGMENT_SIZE;
+        SEGMENT = CHANNEL.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        SEGMENT_INDEX = index;
+
+        if (!existing) {
+            SEGMENT.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(SEGMENT_SIZE);
+            return;
+        }
+        if (SEGMENT.getInt(0) != MAGIC || SEGMENT.getInt(4) > VERSION)
+            throw new IOException(file.getName() + " is not a journal segment of this version");
+        if (SEGMENT.getInt(4) < VERSION) {
+            open(index + 1);
+            return;
+        }
+
+        // Skip past every whole record.
+        int position = HEADER_SIZE;
+        for (int length = JournalRecord.length(SEGMENT, position); length > 0; length = JournalRecord.length(SEGMENT, position))
+            position += length;
+
+        // A record torn by a crash is overwritten, so clear it for records which may be shorter.
+        if (position + 8 <= size && SEGMENT.getLong(position) != 0)
+            for (int i = position; i < size; i++)
+                SEGMENT.put(i, (byte) 0);
+        SEGMENT.position(position);
+    }
+
+    /**
+     * Flushes and closes the current segment, if any.
+     */
+    private void closeSegment() {
+        if (SEGMENT != null)
+            SEGMENT.force();
+        SEGMENT = null;
+        if (CHANNEL != null)
+            try {
+                CHANNEL.close();
+            } catch (IOException ex) {
+                Main.log(Level.WARNING, "Unable to close journal segment " + SEGMENT_INDEX + ": " + ex.getMessage());
+            }
+        CHANNEL = null;
+    }
+}
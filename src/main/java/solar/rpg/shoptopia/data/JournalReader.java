@@ -0,0 +1,220 @@
+package solar.rpg.shoptopia.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads the transaction journal written by Journal. This does not depend on Bukkit,
+ * so a journal folder can be replayed or summarised offline, such as with:
+ * <pre>
+ *   java -cp Shoptopia.jar solar.rpg.shoptopia.data.JournalReader plugins/Shoptopia/journal [replay|summary|unsettled]
+ * </pre>
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see Journal
+ * @since 1.1
+ */
+public final class JournalReader {
+
+    /* File name extension of segments. */
+    private static final String EXTENSION = ".journal";
+
+    private JournalReader() {
+    }
+
+    /**
+     * @param directory The journal folder.
+     * @param index     A segment's index.
+     * @return The segment's file.
+     */
+    static File segmentFile(File directory, int index) {
+        return new File(directory, String.format("%08d%s", index, EXTENSION));
+    }
+
+    /**
+     * @param segment A segment's file.
+     * @return The segment's index.
+     */
+    static int indexOf(File segment) {
+        String name = segment.getName();
+        return Integer.parseInt(name.substring(0, name.length() - EXTENSION.length()));
+    }
+
+    /**
+     * @param directory The journal folder.
+     * @return Every segment in the folder, oldest first.
+     */
+    public static List<File> segments(File directory) {
+        List<File> result = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.matches("\\d{8}" + EXTENSION.replace(".", "\\.")));
+        if (files == null) return result;
+        for (File file : files)
+            result.add(file);
+        result.sort(Comparator.comparingInt(JournalReader::indexOf));
+        return result;
+    }
+
+    /**
+     * Reads every record in a segment, in the order they were written.
+     * Torn records, which were only partly written, are skipped.
+     *
+     * @param segment  A segment's file.
+     * @param consumer Receives each record.
+     * @throws IOException If the segment cannot be read, or belongs to another format.
+     */
+    public static void replay(File segment, Consumer<JournalRecord> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.limit() < Journal.HEADER_SIZE || buf.getInt(0) != Journal.MAGIC
+                    || buf.getInt(4) < 1 || buf.getInt(4) > Journal.VERSION)
+                throw new IOException(segment.getName() + " is not a journal segment of this version");
+
+            buf.position(Journal.HEADER_SIZE);
+            if (buf.getInt(4) == 1) {
+                while (buf.remaining() >= JournalRecord.V1_RECORD_SIZE) {
+                    // Records are appended in order, so the first empty slot is the end of the segment.
+                    if (buf.getLong(buf.position()) == 0) break;
+                    JournalRecord record = JournalRecord.readV1(buf);
+                    if (record != null)
+                        consumer.accept(record);
+                }
+                return;
+            }
+
+            // Records are appended in order, so the first empty or torn record is the end of the segment.
+            while (JournalRecord.length(buf, buf.position()) > 0) {
+                JournalRecord record = JournalRecord.read(buf);
+                if (record != null)
+                    consumer.accept(record);
+            }
+        }
+    }
+
+    /**
+     * Reads every record in every segment of a journal folder, oldest first.
+     *
+     * @param directory The journal folder.
+     * @param consumer  Receives each record.
+     * @throws IOException If a segment cannot be read.
+     */
+    public static void replayAll(File directory, Consumer<JournalRecord> consumer) throws IOException {
+        for (File segment : segments(directory))
+            replay(segment, consumer);
+    }
+
+    /**
+     * Finds purchases which were paid for, but never delivered nor refunded,
+     * such as when the server stopped in between. Their buyers are owed the items or the money.
+     *
+     * @param directory The journal folder.
+     * @return The payment record of every unsettled purchase, oldest first.
+     * @throws IOException If a segment cannot be read.
+     */
+    public static List<JournalRecord> unsettled(File directory) throws IOException {
+        LinkedHashMap<Long, JournalRecord> paid = new LinkedHashMap<>();
+        replayAll(directory, record -> {
+            if (record.getType() == JournalRecord.Type.BUY_PAID)
+                paid.put(record.getTransaction(), record);
+            else if (record.getType() == JournalRecord.Type.BUY || record.getType() == JournalRecord.Type.BUY_REFUNDED)
+                paid.remove(record.getTransaction());
+        });
+        return new ArrayList<>(paid.values());
+    }
+
+    /**
+     * @param directory The journal folder.
+     * @return Totals of every kind of record in the journal.
+     * @throws IOException If a segment cannot be read.
+     */
+    public static Summary summarise(File directory) throws IOException {
+        Summary summary = new Summary();
+        replayAll(directory, summary::add);
+        return summary;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: JournalReader <journal folder> [replay|summary|unsettled]");
+            return;
+        }
+        File directory = new File(args[0]);
+        if (args.length > 1 && args[1].equalsIgnoreCase("replay"))
+            replayAll(directory, System.out::println);
+        else if (args.length > 1 && args[1].equalsIgnoreCase("unsettled"))
+            unsettled(directory).forEach(System.out::println);
+        else System.out.print(summarise(directory));
+    }
+
+    /**
+     * Totals of records by type.
+     */
+    public static final class Summary {
+
+        private final EnumMap<JournalRecord.Type, long[]> COUNTS;
+        private final EnumMap<JournalRecord.Type, double[]> MONEY;
+        private long FIRST, LAST;
+
+        private Summary() {
+            COUNTS = new EnumMap<>(JournalRecord.Type.class);
+            MONEY = new EnumMap<>(JournalRecord.Type.class);
+            for (JournalRecord.Type type : JournalRecord.Type.values()) {
+                COUNTS.put(type, new long[2]);
+                MONEY.put(type, new double[1]);
+            }
+        }
+
+        private void add(JournalRecord record) {
+            long[] counts = COUNTS.get(record.getType());
+            counts[0]++;
+            counts[1] += record.getAmount();
+            MONEY.get(record.getType())[0] += record.getPrice();
+            if (FIRST == 0 || record.getTime() < FIRST) FIRST = record.getTime();
+            if (record.getTime() > LAST) LAST = record.getTime();
+        }
+
+        /**
+         * @param type A type of record.
+         * @return Amount of records of that type.
+         */
+        public long getRecords(JournalRecord.Type type) {
+            return COUNTS.get(type)[0];
+        }
+
+        /**
+         * @param type A type of record.
+         * @return Total amount of items in records of that type.
+         */
+        public long getItems(JournalRecord.Type type) {
+            return COUNTS.get(type)[1];
+        }
+
+        /**
+         * @param type A type of record.
+         * @return Total money in records of that type.
+         */
+        public double getMoney(JournalRecord.Type type) {
+            return MONEY.get(type)[0];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            if (FIRST != 0)
+                result.append(String.format("From %tF %<tT to %tF %<tT%n", FIRST, LAST));
+            for (JournalRecord.Type type : JournalRecord.Type.values())
+                result.append(String.format("%-14s %8d records %10d items %14.2f%n",
+                        type, getRecords(type), getItems(type), getMoney(type)));
+            return result.toString();
+        }
+    }
+}
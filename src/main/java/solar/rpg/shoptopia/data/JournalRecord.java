@@ -0,0 +1,287 @@
+package solar.rpg.shoptopia.data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * A single purchase or sale, as it is stored in the transaction journal.
+ * Records hold the whole traded item, so they vary in size. They are laid out as follows:
+ * <pre>
+ *   0  long   time (epoch milliseconds, never 0)
+ *   8  byte   type
+ *  12  int    owning island ID, -1 for admin showcases
+ *  16  long*2 player UUID
+ *  32  long*2 world UUID
+ *  48  int*3  showcase x, y, z
+ *  60  int    amount of items
+ *  64  double price
+ *  72  long   transaction ID, shared by every record of the same purchase
+ *  80  int    length of the item
+ *  84  byte[] the item, encoded by ItemCodec
+ *      int    CRC32 of every byte before it
+ * </pre>
+ * Version 1 journals held fixed-size records of 128 bytes with only the material name
+ * at offset 72, and no transaction ID. They are still read, as plain items.
+ * This class does not depend on Bukkit, so journals can be read without a server.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see Journal
+ * @see JournalReader
+ * @since 1.1
+ */
+public final class JournalRecord {
+
+    /* Size of a record without its item and checksum. */
+    private static final int FIXED_SIZE = 84;
+    /* Largest item a record can hold. */
+    static final int MAX_ITEM_SIZE = 16384;
+
+    /* Size of a version 1 record, the length of its material name, and the offset of its checksum. */
+    static final int V1_RECORD_SIZE = 128;
+    private static final int V1_MATERIAL_SIZE = 32;
+    private static final int V1_CHECKSUM_OFFSET = 124;
+
+    /* Leading bytes of a plain item encoding, which holds only a material name. See ItemCodec. */
+    private static final byte CODEC_VERSION = 1;
+    private static final byte CODEC_PLAIN = 0;
+
+    private final long TIME;
+    private final Type TYPE;
+    private final int ISLAND_ID;
+    private final UUID PLAYER;
+    private final UUID WORLD;
+    private final int X, Y, Z;
+    private final int AMOUNT;
+    private final double PRICE;
+    private final long TRANSACTION;
+    private final byte[] ITEM;
+
+    public JournalRecord(long TIME, Type TYPE, int ISLAND_ID, UUID PLAYER, UUID WORLD, int X, int Y, int Z, int AMOUNT, double PRICE,
+                         long TRANSACTION, byte[] ITEM) {
+        this.TIME = TIME;
+        this.TYPE = TYPE;
+        this.ISLAND_ID = ISLAND_ID;
+        this.PLAYER = PLAYER;
+        this.WORLD = WORLD;
+        this.X = X;
+        this.Y = Y;
+        this.Z = Z;
+        this.AMOUNT = AMOUNT;
+        this.PRICE = PRICE;
+        this.TRANSACTION = TRANSACTION;
+        this.ITEM = ITEM;
+    }
+
+    /**
+     * @return Size of the record in bytes, including its checksum.
+     */
+    int size() {
+        return FIXED_SIZE + ITEM.length + 4;
+    }
+
+    /**
+     * Writes the record at the buffer's position, advancing it by its size.
+     *
+     * @param buf A buffer with at least size() bytes remaining.
+     */
+    void write(ByteBuffer buf) {
+        int start = buf.position();
+        buf.putLong(TIME);
+        buf.put((byte) TYPE.ordinal());
+        buf.put((byte) 0).put((byte) 0).put((byte) 0);
+        buf.putInt(ISLAND_ID);
+        buf.putLong(PLAYER.getMostSignificantBits()).putLong(PLAYER.getLeastSignificantBits());
+        buf.putLong(WORLD.getMostSignificantBits()).putLong(WORLD.getLeastSignificantBits());
+        buf.putInt(X).putInt(Y).putInt(Z);
+        buf.putInt(AMOUNT);
+        buf.putDouble(PRICE);
+        buf.putLong(TRANSACTION);
+        buf.putInt(ITEM.length);
+        buf.put(ITEM);
+        buf.putInt(checksum(buf, start, buf.position() - start));
+    }
+
+    /**
+     * Checks the record at an offset without moving the buffer.
+     *
+     * @param buf   A buffer.
+     * @param start Offset of a record.
+     * @return Size of the record, or 0 if the slot is empty, or the record is torn or cut off.
+     */
+    static int length(ByteBuffer buf, int start) {
+        if (buf.limit() - start < FIXED_SIZE + 4 || buf.getLong(start) == 0) return 0;
+        int item = buf.getInt(start + FIXED_SIZE - 4);
+        if (item < 0 || item > MAX_ITEM_SIZE || buf.limit() - start < FIXED_SIZE + item + 4) return 0;
+        int size = FIXED_SIZE + item + 4;
+        return buf.getInt(start + size - 4) == checksum(buf, start, size - 4) ? size : 0;
+    }
+
+    /**
+     * Reads a record at the buffer's position, advancing it by the record's size.
+     *
+     * @param buf A buffer positioned at a record which was checked by length(ByteBuffer, int).
+     * @return The record, or null if it has an unknown type.
+     */
+    static JournalRecord read(ByteBuffer buf) {
+        long time = buf.getLong();
+        int type = buf.get();
+        buf.position(buf.position() + 3);
+        int island = buf.getInt();
+        UUID player = new UUID(buf.getLong(), buf.getLong());
+        UUID world = new UUID(buf.getLong(), buf.getLong());
+        int x = buf.getInt(), y = buf.getInt(), z = buf.getInt();
+        int amount = buf.getInt();
+        double price = buf.getDouble();
+        long transaction = buf.getLong();
+        byte[] item = new byte[buf.getInt()];
+        buf.get(item);
+        buf.getInt();
+        if (type < 0 || type >= Type.values().length) return null;
+        return new JournalRecord(time, Type.values()[type], island, player, world, x, y, z, amount, price, transaction, item);
+    }
+
+    /**
+     * Reads a version 1 record at the buffer's position, advancing it by V1_RECORD_SIZE.
+     *
+     * @param buf A buffer with at least V1_RECORD_SIZE bytes remaining.
+     * @return The record, or null if the slot is empty or the record is torn.
+     */
+    static JournalRecord readV1(ByteBuffer buf) {
+        int start = buf.position();
+        long time = buf.getLong(start);
+        int stored = buf.getInt(start + V1_CHECKSUM_OFFSET);
+        if (time == 0 || stored != checksum(buf, start, V1_CHECKSUM_OFFSET)) {
+            buf.position(start + V1_RECORD_SIZE);
+            return null;
+        }
+        buf.getLong();
+        int type = buf.get();
+        buf.position(buf.position() + 3);
+        int island = buf.getInt();
+        UUID player = new UUID(buf.getLong(), buf.getLong());
+        UUID world = new UUID(buf.getLong(), buf.getLong());
+        int x = buf.getInt(), y = buf.getInt(), z = buf.getInt();
+        int amount = buf.getInt();
+        double price = buf.getDouble();
+        byte[] material = new byte[V1_MATERIAL_SIZE];
+        buf.get(material);
+        int length = 0;
+        while (length < V1_MATERIAL_SIZE && material[length] != 0) length++;
+        buf.position(start + V1_RECORD_SIZE);
+        if (type < 0 || type >= Type.values().length) return null;
+
+        // A material name is exactly what a plain item encoding holds.
+        byte[] item = new byte[length + 2];
+        item[0] = CODEC_VERSION;
+        item[1] = CODEC_PLAIN;
+        System.arraycopy(material, 0, item, 2, length);
+        return new JournalRecord(time, Type.values()[type], island, player, world, x, y, z, amount, price, 0, item);
+    }
+
+    /**
+     * @param buf    A buffer.
+     * @param start  Offset of a record.
+     * @param length Amount of bytes covered by the checksum.
+     * @return CRC32 of the bytes.
+     */
+    private static int checksum(ByteBuffer buf, int start, int length) {
+        CRC32 crc = new CRC32();
+        for (int i = start; i < start + length; i++)
+            crc.update(buf.get(i));
+        return (int) crc.getValue();
+    }
+
+    public long getTime() {
+        return TIME;
+    }
+
+    public Type getType() {
+        return TYPE;
+    }
+
+    /**
+     * @return Owning island's ID. -1 if admin shop.
+     */
+    public int getIslandID() {
+        return ISLAND_ID;
+    }
+
+    /**
+     * @return The player who bought or sold.
+     */
+    public UUID getPlayer() {
+        return PLAYER;
+    }
+
+    public UUID getWorld() {
+        return WORLD;
+    }
+
+    public int getX() {
+        return X;
+    }
+
+    public int getY() {
+        return Y;
+    }
+
+    public int getZ() {
+        return Z;
+    }
+
+    public int getAmount() {
+        return AMOUNT;
+    }
+
+    public double getPrice() {
+        return PRICE;
+    }
+
+    /**
+     * @return ID shared by every record of the same purchase. 0 if journalled by version 1.
+     */
+    public long getTransaction() {
+        return TRANSACTION;
+    }
+
+    /**
+     * @return The traded item, encoded by ItemCodec, without its amount.
+     */
+    public byte[] getItem() {
+        return ITEM.clone();
+    }
+
+    /**
+     * @return The item's material name, or null if the item has meta and needs ItemCodec to be read.
+     */
+    public String getMaterial() {
+        if (ITEM.length < 2 || ITEM[0] != CODEC_VERSION || ITEM[1] != CODEC_PLAIN) return null;
+        return new String(ITEM, 2, ITEM.length - 2, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+        String material = getMaterial();
+        return String.format("%tF %<tT %s #%d %s x%d %s for %.2f at %d,%d,%d (island %d)", TIME, TYPE, TRANSACTION, PLAYER, AMOUNT,
+                material == null ? "item with meta (" + ITEM.length + " bytes)" : material, PRICE, X, Y, Z, ISLAND_ID);
+    }
+
+    /**
+     * What happened in a journalled transaction.
+     */
+    public enum Type {
+        /* Items were bought and delivered. */
+        BUY,
+        /* A purchase was paid for, but could not be delivered and was refunded. */
+        BUY_REFUNDED,
+        /* Items were sold and paid for. */
+        SELL,
+        /* Items were taken for a sale, but the payment failed and they were returned. */
+        SELL_RETURNED,
+        /* A purchase was paid for, and is about to be delivered. Followed by BUY or BUY_REFUNDED. */
+        BUY_PAID
+    }
+}
@@ -14,16 +14,21 @@ import solar.rpg.skyblock.stored.Settings;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 
 /**
  * Loader is responsible for scanning the .XML config and database table.
- * These values are returned to the Handler where they are then stored.
+ * Both are read off the main thread into showcase records, which are
+ * returned to the Handler to be built into showcases on the main thread.
  *
  * @author lavuh
  * @version 1.1
@@ -32,6 +37,12 @@ import java.util.logging.Level;
  */
 class Loader {
 
+    /* Current layout of the Shops table. Version 1 stored each location as an "x,y,z" string,
+       and versions 1 and 2 stored each product as a material name. */
+    private static final int SCHEMA_VERSION = 3;
+    /* Rows converted per statement while migrating, so the table is never locked for long. */
+    private static final int MIGRATION_BATCH = 500;
+
     Loader() {
     }
 
@@ -47,12 +58,38 @@ class Loader {
             db.regenerateTable("Shops",
                     "CREATE TABLE `Shops` (" +
                             "`owner_id` SMALLINT UNSIGNED NOT NULL," +
+                            "`world` VARCHAR(64) NOT NULL," +
+                            "`x` INT NOT NULL," +
+                            "`y` SMALLINT NOT NULL," +
+                            "`z` INT NOT NULL," +
                             "`amount` SMALLINT UNSIGNED NOT NULL," +
                             "`price` INT UNSIGNED NOT NULL," +
-                            "`item` TINYTEXT NOT NULL," +
-                            "`xyz` VARCHAR(255) NOT NULL," +
-                            "PRIMARY KEY (`owner_id`, `xyz`)," +
+                            "`product` BLOB NOT NULL," +
+                            "PRIMARY KEY (`world`, `x`, `z`, `y`)," +
+                            "KEY `owner` (`owner_id`)," +
                             "FOREIGN KEY (`owner_id`) REFERENCES Island(`island_id`));");
+            db.regenerateTable("ShopsMeta",
+                    "CREATE TABLE `ShopsMeta` (" +
+                            "`name` VARCHAR(32) NOT NULL," +
+                            "`value` BIGINT NOT NULL," +
+                            "PRIMARY KEY (`name`));");
+            execute(db, "INSERT IGNORE INTO `ShopsMeta`(`name`, `value`) VALUES ('revision', 0)");
+            migrateShops(db);
+            migrateProducts(db);
+            db.regenerateTable("ShopStats",
+                    "CREATE TABLE `ShopStats` (" +
+                            "`island_id` INT NOT NULL," +
+                            "`period_start` BIGINT NOT NULL," +
+                            "`period_end` BIGINT NOT NULL," +
+                            "`previews` BIGINT UNSIGNED NOT NULL," +
+                            "`purchases` BIGINT UNSIGNED NOT NULL," +
+                            "`sales` BIGINT UNSIGNED NOT NULL," +
+                            "`items_bought` BIGINT UNSIGNED NOT NULL," +
+                            "`items_sold` BIGINT UNSIGNED NOT NULL," +
+                            "`failures` BIGINT UNSIGNED NOT NULL," +
+                            "`revenue` DOUBLE NOT NULL," +
+                            "`payouts` DOUBLE NOT NULL," +
+                            "PRIMARY KEY (`island_id`, `period_start`));");
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
@@ -61,20 +98,183 @@ class Loader {
     }
 
     /**
-     * @param main Instance of JavaPlugin for file I/O purposes.
+     * Migrates the Shops table from the version 1 layout, where each location was a single
+     * "x,y,z" string, to separate integer columns under a positional primary key.
+     * Each step checks whether it has already been done, so an interrupted migration
+     * carries on where it left off the next time the tables are checked.
+     *
+     * @param db Skytopia database implementation.
+     * @throws SQLException Unable to migrate the table. It is left as it was after the last completed step.
+     */
+    private void migrateShops(Database db) throws SQLException {
+        Set<String> columns = getColumns(db, "Shops");
+        if (!columns.contains("xyz")) return;
+        Main.log(Level.INFO, "Migrating Shops table to schema version " + SCHEMA_VERSION + "...");
+
+        // Step 1: add the new columns, nullable until they are filled in.
+        if (!columns.contains("world"))
+            execute(db, "ALTER TABLE `Shops` ADD COLUMN `world` VARCHAR(64) NULL AFTER `owner_id`");
+        if (!columns.contains("x"))
+            execute(db, "ALTER TABLE `Shops` ADD COLUMN `x` INT NULL AFTER `world`, " +
+                    "ADD COLUMN `y` SMALLINT NULL AFTER `x`, ADD COLUMN `z` INT NULL AFTER `y`");
+
+        // Step 2: split the old location strings, a chunk of rows at a time.
+        int migrated = 0, updated;
+        do {
+            PreparedStatement split = db.prepare("UPDATE `Shops` SET " +
+                    "`x` = CAST(SUBSTRING_INDEX(`xyz`, ',', 1) AS SIGNED), " +
+                    "`y` = CAST(SUBSTRING_INDEX(SUBSTRING_INDEX(`xyz`, ',', 2), ',', -1) AS SIGNED), " +
+                    "`z` = CAST(SUBSTRING_INDEX(`xyz`, ',', -1) AS SIGNED), " +
+                    "`world` = ? WHERE `x` IS NULL LIMIT " + MIGRATION_BATCH);
+            split.setString(1, Settings.ADMIN_WORLD_ID);
+            updated = split.executeUpdate();
+            split.close();
+            migrated += updated;
+        } while (updated == MIGRATION_BATCH);
+
+        // Step 3: swap the primary key over to the new columns and drop the old one.
+        execute(db, "ALTER TABLE `Shops` " +
+                "MODIFY `world` VARCHAR(64) NOT NULL, MODIFY `x` INT NOT NULL, " +
+                "MODIFY `y` SMALLINT NOT NULL, MODIFY `z` INT NOT NULL, " +
+                "ADD KEY `owner` (`owner_id`), DROP PRIMARY KEY, " +
+                "ADD PRIMARY KEY (`world`, `x`, `z`, `y`), DROP COLUMN `xyz`");
+        bumpRevision(db);
+        Main.log(Level.INFO, String.format("Migrated %d player showcases to schema version %d.", migrated, SCHEMA_VERSION));
+    }
+
+    /**
+     * Migrates the Shops table from the version 2 layout, where each product was a material name,
+     * to products encoded by ItemCodec. Like migrateShops, it resumes where it left off if interrupted.
+     *
+     * @param db Skytopia database implementation.
+     * @throws SQLException Unable to migrate the table. It is left as it was after the last completed step.
+     */
+    private void migrateProducts(Database db) throws SQLException {
+        Set<String> columns = getColumns(db, "Shops");
+        if (!columns.contains("item")) return;
+        Main.log(Level.INFO, "Migrating Shops table to schema version " + SCHEMA_VERSION + "...");
+
+        // Step 1: add the new column, nullable until it is filled in.
+        if (!columns.contains("product"))
+            execute(db, "ALTER TABLE `Shops` ADD COLUMN `product` BLOB NULL AFTER `item`");
+
+        // Step 2: encode the old material names, a chunk of rows at a time.
+        int migrated = 0, read;
+        do {
+            PreparedStatement select = db.prepare("SELECT `world`, `x`, `z`, `y`, `item` FROM `Shops` WHERE `product` IS NULL LIMIT " + MIGRATION_BATCH);
+            PreparedStatement update = db.prepare("UPDATE `Shops` SET `product` = ? WHERE (`world`, `x`, `z`, `y`) = (?,?,?,?)");
+            PreparedStatement delete = db.prepare("DELETE FROM `Shops` WHERE (`world`, `x`, `z`, `y`) = (?,?,?,?)");
+            ResultSet rows = select.executeQuery();
+            read = 0;
+            while (rows.next()) {
+                read++;
+                byte[] product;
+                try {
+                    product = ItemCodec.encode(parseItemStack(rows.getString("item")));
+                } catch (IllegalArgumentException ex) {
+                    // These rows could never be loaded, so there is nothing to keep.
+                    Main.log(Level.WARNING, String.format("Removing player showcase at %d,%d,%d with unknown item %s.",
+                            rows.getInt("x"), rows.getInt("y"), rows.getInt("z"), rows.getString("item")));
+                    product = null;
+                }
+                PreparedStatement target = product == null ? delete : update;
+                int i = 1;
+                if (product != null)
+                    target.setBytes(i++, product);
+                target.setString(i++, rows.getString("world"));
+                target.setInt(i++, rows.getInt("x"));
+                target.setInt(i++, rows.getInt("z"));
+                target.setInt(i, rows.getInt("y"));
+                target.addBatch();
+            }
+            rows.close();
+            select.close();
+            update.executeBatch();
+            update.close();
+            delete.executeBatch();
+            delete.close();
+            migrated += read;
+        } while (read == MIGRATION_BATCH);
+
+        // Step 3: make the new column required and drop the old one.
+        execute(db, "ALTER TABLE `Shops` MODIFY `product` BLOB NOT NULL, DROP COLUMN `item`");
+        bumpRevision(db);
+        Main.log(Level.INFO, String.format("Migrated %d player showcase products to schema version %d.", migrated, SCHEMA_VERSION));
+    }
+
+    /**
+     * The revision of the Shops table goes up every time Shoptopia changes it,
+     * so a copy of the table can be checked for changes without reading it again.
+     *
+     * @param db Skytopia database implementation.
+     * @return The current revision of the Shops table.
+     * @throws SQLException Unable to read the revision.
+     */
+    static long readRevision(Database db) throws SQLException {
+        PreparedStatement query = db.prepare("SELECT `value` FROM `ShopsMeta` WHERE `name` = 'revision'");
+        ResultSet result = query.executeQuery();
+        long revision = result.next() ? result.getLong(1) : -1;
+        result.close();
+        query.close();
+        return revision;
+    }
+
+    /**
+     * Marks the Shops table as changed.
+     *
+     * @param db Skytopia database implementation.
+     * @throws SQLException Unable to update the revision.
+     */
+    static void bumpRevision(Database db) throws SQLException {
+        execute(db, "UPDATE `ShopsMeta` SET `value` = `value` + 1 WHERE `name` = 'revision'");
+    }
+
+    /**
+     * @param db    Skytopia database implementation.
+     * @param table Name of the table.
+     * @return Lower case names of the table's columns.
+     * @throws SQLException Unable to read the table's metadata.
+     */
+    private Set<String> getColumns(Database db, String table) throws SQLException {
+        Set<String> result = new HashSet<>();
+        PreparedStatement query = db.prepare("SELECT * FROM `" + table + "` LIMIT 0");
+        ResultSetMetaData meta = query.executeQuery().getMetaData();
+        for (int i = 1; i <= meta.getColumnCount(); i++)
+            result.add(meta.getColumnName(i).toLowerCase());
+        query.close();
+        return result;
+    }
+
+    /**
+     * Runs a single statement which returns nothing.
+     *
+     * @param db  Skytopia database implementation.
+     * @param sql The statement.
+     * @throws SQLException Unable to run the statement.
+     */
+    private static void execute(Database db, String sql) throws SQLException {
+        PreparedStatement statement = db.prepare(sql);
+        statement.executeUpdate();
+        statement.close();
+    }
+
+    /**
+     * Reads admin showcases from shops.xml. Safe to call off the main thread.
+     *
+     * @param dataFolder The plugin data folder.
      * @return Parsed configuration file admin showcases.
      */
-    Set<Showcase> loadAdminShowcases(Main main) {
-        Set<Showcase> result = new HashSet<>();
+    List<ShowcaseRecord> readAdminShowcases(File dataFolder) {
+        List<ShowcaseRecord> result = new ArrayList<>();
         Main.log(Level.FINE, "Attempting to scan configuration!");
 
         // Attempt to make plugin data folder, if unsuccessful, return empty set.
-        if (!main.getDataFolder().exists())
-            if (!main.getDataFolder().mkdir())
+        if (!dataFolder.exists())
+            if (!dataFolder.mkdir())
                 return result;
 
         // Check for XML config file.
-        File config = new File(main.getDataFolder() + File.separator + "shops.xml");
+        File config = new File(dataFolder + File.separator + "shops.xml");
         if (!config.exists())
             Main.log(Level.WARNING, "Configuration file does not exist!");
         else {
@@ -115,8 +315,8 @@ class Loader {
                         sellData = new PurchaseData(parseItemStack(sell.getAttribute("item"), Integer.parseInt(sell.getAttribute("amount"))), Double.parseDouble(sell.getAttribute("price")));
                     } else sellData = null;
 
-                    // Create the showcase, add it to the set, continue.
-                    result.add(new Showcase(main, x, y, z, iconStack, buyData, sellData, restricted, -1, Bukkit.getWorld("world")));
+                    // Record the showcase, continue.
+                    result.add(new ShowcaseRecord(x, y, z, "world", iconStack, buyData, sellData, restricted, -1));
                 }
             } catch (Exception e) {
                 e.printStackTrace();
@@ -126,38 +326,59 @@ class Loader {
     }
 
     /**
-     * @param main Instance of JavaPlugin for showcase purposes.
-     * @param db   Skytopia database implementation.
-     * @return Parsed database table for player showcases.
+     * Reads the player showcases of some islands from the database. Safe to call off the main thread.
+     *
+     * @param db        Skytopia database implementation.
+     * @param islandIDs IDs of the islands to read.
+     * @return Parsed database table rows for the islands' showcases, or null if the table could not be read.
      */
-    HashMap<Integer, Showcase[]> loadPlayerShowcases(Main main, Database db) {
-        HashMap<Integer, Showcase[]> result = new HashMap<>();
+    List<ShowcaseRecord> readPlayerShowcases(Database db, Collection<Integer> islandIDs) {
+        List<ShowcaseRecord> result = new ArrayList<>();
+        if (islandIDs.isEmpty()) return result;
         Main.log(Level.FINE, "Attempting to scan database!");
 
         try {
-            ResultSet check = db.prepare("SELECT * FROM `Shops`").executeQuery();
+            // Look the islands up by the owner_id key.
+            StringBuilder in = new StringBuilder();
+            for (int i = 0; i < islandIDs.size(); i++)
+                in.append(i == 0 ? "?" : ",?");
+            PreparedStatement query = db.prepare("SELECT `owner_id`, `world`, `x`, `y`, `z`, `amount`, `price`, `product` FROM `Shops` WHERE `owner_id` IN (" + in + ")");
+            int param = 1;
+            for (Integer islandID : islandIDs)
+                query.setInt(param++, islandID);
+            ResultSet check = query.executeQuery();
+
+            // Identical products are only decoded once.
+            ItemCodec codec = new ItemCodec();
 
             // Go through every player shop row, attempt to add it in.
             while (check.next()) {
                 // Retrieve x,y,z coordinates for location item.
-                String[] xyz = check.getString("xyz").split(",");
-                int x = Integer.parseInt(xyz[0]);
-                int y = Integer.parseInt(xyz[1]);
-                int z = Integer.parseInt(xyz[2]);
+                int x = check.getInt("x");
+                int y = check.getInt("y");
+                int z = check.getInt("z");
 
-                // Parse item stack for this player showcase.
-                ItemStack iconStack = parseItemStack(check.getString("item"), check.getInt("amount"));
+                // Decode the item stack for this player showcase.
+                ItemStack iconStack;
+                try {
+                    iconStack = codec.decode(check.getBytes("product"), check.getInt("amount"));
+                } catch (IllegalArgumentException ex) {
+                    Main.log(Level.WARNING, String.format("Skipping player showcase at %d,%d,%d: %s", x, y, z, ex.getMessage()));
+                    continue;
+                }
 
                 // Player showcases are always buy-only, so we can safely add in the buy data.
                 PurchaseData buyData = new PurchaseData(iconStack, (double) check.getInt("price"));
 
-                // Places the new showcase into the proper array index for the owning island.
-                main.getHandler().handlePlayerShowcase(result, check.getInt("owner_id"), new Showcase(main, x, y, z, iconStack, buyData, null, false, check.getInt("owner_id"), Bukkit.getWorld(Settings.ADMIN_WORLD_ID)));
+                // Record the showcase for the owning island.
+                result.add(new ShowcaseRecord(x, y, z, check.getString("world"), iconStack, buyData, null, false, check.getInt("owner_id")));
             }
             check.close();
+            query.close();
         } catch (SQLException ex) {
-            // Something went wrong, just print the stack trace and move on.
+            // Something went wrong, print the stack trace so the islands are read again later.
             ex.printStackTrace();
+            return null;
         }
         return result;
     }
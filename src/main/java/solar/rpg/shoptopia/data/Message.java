@@ -0,0 +1,148 @@
+package solar.rpg.shoptopia.data;
+
+import static solar.rpg.shoptopia.data.Message.Placeholder.AMOUNT;
+import static solar.rpg.shoptopia.data.Message.Placeholder.ITEM;
+import static solar.rpg.shoptopia.data.Message.Placeholder.MAX;
+import static solar.rpg.shoptopia.data.Message.Placeholder.PRICE;
+
+/**
+ * Every message that Shoptopia sends to players, by its key in messages.yml.
+ * Each message declares the placeholders it accepts; anything else in braces is left as written.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see Messages
+ * @since 1.1
+ */
+public enum Message {
+
+    SELL("sell.title"),
+    SOLD("sell.done-title"),
+    SELL_AMT_FOR("sell.preview", AMOUNT, PRICE),
+    SELL_SUCCESS("sell.success", AMOUNT, PRICE),
+    NO_SELL("sell.not-allowed"),
+    NO_ADMIN_SELL("sell.not-sellable"),
+    INSUFFICIENT_ITEMS("sell.insufficient-items"),
+    SALE_FAILED("sell.failed"),
+
+    BUY("buy.title"),
+    BOUGHT("buy.done-title"),
+    BUY_AMT_FOR("buy.preview", AMOUNT, PRICE),
+    BUY_SUCCESS("buy.success", AMOUNT, PRICE),
+    NO_BUY("buy.not-buyable"),
+    INSUFFICIENT_MONEY("buy.insufficient-money"),
+    TRANSACTION_FAILED("buy.failed"),
+    INVENTORY_FULL("buy.inventory-full"),
+
+    OUT_OF_STOCK("shop.out-of-stock"),
+    SHOP_BROKEN("shop.broken"),
+    DONATOR_ONLY("shop.donator-only"),
+
+    ARGUMENT_ERROR("command.usage"),
+    ARGUMENT_CREATE_ERROR("command.usage-create"),
+    ARGUMENT_UPDATE_ERROR("command.usage-update"),
+    ARGUMENT_BUY_ERROR("command.usage-buy"),
+    ARGUMENT_SELL_ERROR("command.usage-sell"),
+    ARGUMENT_INFO("command.info"),
+    SHOP_INVALID_LOCATION("command.invalid-location"),
+    SHOP_TOO_MANY("command.too-many-shops", MAX),
+    SHOP_NO_ITEM("command.no-item"),
+    SHOP_OBSTRUCTED("command.obstructed"),
+    SHOP_REMOVED("command.removed"),
+    SHOP_CREATED("command.created"),
+    SHOP_INVALID_BLOCK("command.invalid-block"),
+    SHOP_NO_SHOP("command.no-shop"),
+    SHOP_LOADING("command.loading"),
+    SHOWCASE_NOT_FOUND("command.not-showcase"),
+    SHOWCASE_OWN("command.own-showcase"),
+    TOO_MANY_LOTS("command.too-many-lots", MAX),
+    TRADING_TOO_FAST("command.too-fast"),
+    CHEST_NOT_FOUND("command.chest-not-found"),
+    RELOAD_SUCCESS("command.reload-success", AMOUNT),
+    RELOAD_FAILURE("command.reload-failure"),
+    NO_PERMISSION("command.no-permission"),
+    ARGUMENT_STATS_ERROR("command.usage-stats"),
+
+    STATS_ISLAND("stats.header-island"),
+    STATS_TOTAL("stats.header-total"),
+    STATS_TOP("stats.header-top", MAX),
+    STATS_PREVIEWS("stats.previews", AMOUNT),
+    STATS_PURCHASES("stats.purchases", AMOUNT, PRICE),
+    STATS_SALES("stats.sales", AMOUNT, PRICE),
+    STATS_FAILURES("stats.failures", AMOUNT),
+    STATS_TOP_ENTRY("stats.top-entry", AMOUNT, ITEM, PRICE),
+    STATS_NO_ISLAND("stats.no-island");
+
+    /* Path of the message in messages.yml. */
+    private final String KEY;
+    /* Placeholders the message may contain. */
+    private final Placeholder[] PLACEHOLDERS;
+
+    Message(String KEY, Placeholder... PLACEHOLDERS) {
+        this.KEY = KEY;
+        this.PLACEHOLDERS = PLACEHOLDERS;
+    }
+
+    /**
+     * @return Path of the message in messages.yml.
+     */
+    public String getKey() {
+        return KEY;
+    }
+
+    /**
+     * @return Placeholders the message may contain.
+     */
+    Placeholder[] getPlaceholders() {
+        return PLACEHOLDERS;
+    }
+
+    /**
+     * Placeholders which can be filled in when a message is rendered.
+     * Each placeholder is filled with the rendered value of its kind.
+     */
+    public enum Placeholder {
+        /* Amount of items traded. */
+        AMOUNT("{amount}", Kind.COUNT),
+        /* Price of a trade. */
+        PRICE("{price}", Kind.PRICE),
+        /* A configured limit. */
+        MAX("{max}", Kind.COUNT),
+        /* Description of an item. */
+        ITEM("{item}", Kind.TEXT);
+
+        private final String TOKEN;
+        private final Kind KIND;
+
+        Placeholder(String TOKEN, Kind KIND) {
+            this.TOKEN = TOKEN;
+            this.KIND = KIND;
+        }
+
+        /**
+         * @return The placeholder as it is written in messages.yml.
+         */
+        String getToken() {
+            return TOKEN;
+        }
+
+        /**
+         * @return What the placeholder is filled with.
+         */
+        Kind getKind() {
+            return KIND;
+        }
+    }
+
+    /**
+     * Kinds of values placeholders are filled with.
+     */
+    enum Kind {
+        /* A whole number. */
+        COUNT,
+        /* A price, formatted to two decimal places at most. */
+        PRICE,
+        /* Plain text. */
+        TEXT
+    }
+}
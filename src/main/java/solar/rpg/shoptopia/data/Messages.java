@@ -0,0 +1,170 @@
+package solar.rpg.shoptopia.data;
+
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.file.YamlConfiguration;
+import solar.rpg.shoptopia.Main;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.logging.Level;
+
+/**
+ * Messages holds every player-facing message, loaded from messages.yml.
+ * Each message is compiled once into a template of literal text and typed placeholders,
+ * so that rendering it is a single pass with no searching or replacing.
+ * Messages missing from the file fall back to the defaults shipped with the plugin.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see Message
+ * @since 1.1
+ */
+public class Messages {
+
+    /* Compiled template of every message. */
+    private final EnumMap<Message, Template> TEMPLATES;
+
+    /* Decimal formatter for prices. */
+    private final DecimalFormat FORMAT;
+
+    /* Incremented every time the messages are reloaded. */
+    private int VERSION;
+
+    Messages() {
+        TEMPLATES = new EnumMap<>(Message.class);
+        FORMAT = new DecimalFormat("#.##");
+    }
+
+    /**
+     * Loads messages.yml from the plugin folder, writing out the defaults if it does not exist yet.
+     *
+     * @param PLUGIN Reference to JavaPlugin.
+     */
+    void reload(Main PLUGIN) {
+        File file = new File(PLUGIN.getDataFolder(), "messages.yml");
+        if (!file.exists())
+            PLUGIN.saveResource("messages.yml", false);
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
+        InputStream defaults = PLUGIN.getResource("messages.yml");
+        if (defaults != null)
+            config.setDefaults(YamlConfiguration.loadConfiguration(new InputStreamReader(defaults, StandardCharsets.UTF_8)));
+
+        for (Message message : Message.values()) {
+            String text = config.getString(message.getKey());
+            if (text == null) {
+                Main.log(Level.WARNING, "Message " + message.getKey() + " is missing from messages.yml!");
+                text = message.getKey();
+            }
+            TEMPLATES.put(message, new Template(ChatColor.translateAlternateColorCodes('&', text), message.getPlaceholders()));
+        }
+        VERSION++;
+    }
+
+    /**
+     * @return Amount of times the messages have been loaded. Rendered messages from an older version are stale.
+     */
+    public int getVersion() {
+        return VERSION;
+    }
+
+    /**
+     * @param message A message without placeholders.
+     * @return The message.
+     */
+    public String get(Message message) {
+        return TEMPLATES.get(message).render(0, 0, "");
+    }
+
+    /**
+     * @param message A message.
+     * @param count   Value of any whole number placeholders.
+     * @return The rendered message.
+     */
+    public String render(Message message, long count) {
+        return TEMPLATES.get(message).render(count, 0, "");
+    }
+
+    /**
+     * @param message A message.
+     * @param count   Value of any whole number placeholders.
+     * @param price   Value of any price placeholders.
+     * @return The rendered message.
+     */
+    public String render(Message message, long count, double price) {
+        return TEMPLATES.get(message).render(count, price, "");
+    }
+
+    /**
+     * @param message A message.
+     * @param count   Value of any whole number placeholders.
+     * @param price   Value of any price placeholders.
+     * @param text    Value of any text placeholders.
+     * @return The rendered message.
+     */
+    public String render(Message message, long count, double price, String text) {
+        return TEMPLATES.get(message).render(count, price, text);
+    }
+
+    /**
+     * A message split into literal text and the placeholders between it.
+     */
+    private final class Template {
+
+        /* Literal text. There is always one more piece of text than there are placeholders. */
+        private final String[] TEXT;
+        /* Placeholders, in the order they appear. */
+        private final Message.Placeholder[] SLOTS;
+        /* Length of the literal text, used to size the output. */
+        private final int LENGTH;
+
+        private Template(String message, Message.Placeholder[] allowed) {
+            ArrayList<String> text = new ArrayList<>();
+            ArrayList<Message.Placeholder> slots = new ArrayList<>();
+            int start = 0, length = 0;
+            for (int i = message.indexOf('{'); i >= 0; i = message.indexOf('{', i + 1))
+                for (Message.Placeholder placeholder : allowed)
+                    if (message.startsWith(placeholder.getToken(), i)) {
+                        text.add(message.substring(start, i));
+                        length += i - start;
+                        slots.add(placeholder);
+                        start = i + placeholder.getToken().length();
+                        break;
+                    }
+            text.add(message.substring(start));
+            TEXT = text.toArray(new String[0]);
+            SLOTS = slots.toArray(new Message.Placeholder[0]);
+            LENGTH = length + message.length() - start;
+        }
+
+        /**
+         * @param count Value of any whole number placeholders.
+         * @param price Value of any price placeholders.
+         * @param text  Value of any text placeholders.
+         * @return The rendered message.
+         */
+        private String render(long count, double price, String text) {
+            if (SLOTS.length == 0) return TEXT[0];
+            StringBuilder result = new StringBuilder(LENGTH + SLOTS.length * 8);
+            for (int i = 0; i < SLOTS.length; i++) {
+                result.append(TEXT[i]);
+                switch (SLOTS[i].getKind()) {
+                    case COUNT:
+                        result.append(count);
+                        break;
+                    case PRICE:
+                        result.append(FORMAT.format(price));
+                        break;
+                    case TEXT:
+                        result.append(text);
+                        break;
+                }
+            }
+            return result.append(TEXT[SLOTS.length]).toString();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package solar.rpg.shoptopia.data;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Keeps showcases on display only while a player is nearby.
+ * Every sweep looks at the chunks around each player in a world with showcases,
+ * puts nearby showcases on display, then retires the displays of showcases that
+ * nobody was near this time. The amount of display entities therefore follows
+ * the amount of players who are actually shopping.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see Handler#isLazyDisplay()
+ * @since 1.1
+ */
+public class ProximitySweeper extends BukkitRunnable {
+
+    /* Index of showcases by chunk. */
+    private final ChunkIndex INDEX;
+
+    /* Display radius in blocks, squared, and in chunks. */
+    private final int RADIUS_SQUARED;
+    private final int CHUNK_RADIUS;
+
+    /* Showcases put on display by this sweeper. */
+    private final Set<Showcase> SHOWN;
+
+    /* Incremented every sweep. Showcases near a player are marked with the current sweep. */
+    private int SWEEP;
+
+    /**
+     * @param INDEX  Index of showcases by chunk.
+     * @param radius Display radius in blocks.
+     */
+    ProximitySweeper(ChunkIndex INDEX, int radius) {
+        this.INDEX = INDEX;
+        RADIUS_SQUARED = radius * radius;
+        CHUNK_RADIUS = (radius >> 4) + 1;
+        SHOWN = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    public void run() {
+        SWEEP++;
+
+        // Put every showcase within range of a player on display.
+        for (World world : Bukkit.getWorlds()) {
+            if (!INDEX.hasWorld(world)) continue;
+            for (Player player : world.getPlayers()) {
+                Location loc = player.getLocation();
+                int chunkX = loc.getBlockX() >> 4, chunkZ = loc.getBlockZ() >> 4;
+                for (int x = chunkX - CHUNK_RADIUS; x <= chunkX + CHUNK_RADIUS; x++)
+                    for (int z = chunkZ - CHUNK_RADIUS; z <= chunkZ + CHUNK_RADIUS; z++) {
+                        if (!INDEX.isOccupied(world, x, z)) continue;
+                        Showcase[] bucket = INDEX.getShowcases(world, x, z);
+                        if (bucket == null) continue;
+                        for (Showcase sc : bucket) {
+                            if (sc.getSweep() == SWEEP || !isInRange(sc.getPosition(), loc)) continue;
+                            sc.setSweep(SWEEP);
+                            SHOWN.add(sc);
+                            sc.respawn();
+                        }
+                    }
+            }
+        }
+
+        // Retire the displays of showcases which nobody is near anymore.
+        Iterator<Showcase> it = SHOWN.iterator();
+        while (it.hasNext()) {
+            Showcase sc = it.next();
+            if (sc.getSweep() != SWEEP) {
+                sc.despawn();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @param position A showcase's location.
+     * @param player   A player's location, in the same world.
+     * @return True if the player is within the display radius.
+     */
+    private boolean isInRange(Location position, Location player) {
+        double dx = position.getBlockX() + 0.5 - player.getX();
+        double dy = position.getBlockY() + 0.5 - player.getY();
+        double dz = position.getBlockZ() + 0.5 - player.getZ();
+        return dx * dx + dy * dy + dz * dz <= RADIUS_SQUARED;
+    }
+
+    /**
+     * Stops sweeping. Displays are left as they are.
+     */
+    void stop() {
+        cancel();
+        SHOWN.clear();
+    }
+}
@@ -16,6 +16,9 @@ public class PurchaseData {
     private final ItemStack STOCK;
     private final Double PRICE;
 
+    /* The stock encoded by ItemCodec, once it has been needed. */
+    private volatile byte[] ENCODED;
+
     /**
      * Purchase data constructor.
      *
@@ -36,6 +39,60 @@ public class PurchaseData {
         return STOCK.clone();
     }
 
+    /**
+     * The stock is only encoded once, however many times it is journalled.
+     *
+     * @return The stock, encoded by ItemCodec. <em>It must not be modified.</em>
+     */
+    public byte[] getEncodedStock() {
+        byte[] encoded = ENCODED;
+        if (encoded == null)
+            ENCODED = encoded = ItemCodec.encode(STOCK);
+        return encoded;
+    }
+
+    /**
+     * Returns several lots of the purchase data's stock,
+     * split into stacks no larger than the item's maximum stack size.
+     *
+     * @param lots Amount of lots.
+     * @return The stock of every lot.
+     */
+    public ItemStack[] getStock(int lots) {
+        int total = STOCK.getAmount() * lots;
+        int max = Math.max(1, STOCK.getMaxStackSize());
+        ItemStack[] stacks = new ItemStack[(total + max - 1) / max];
+        for (int i = 0; i < stacks.length; i++) {
+            stacks[i] = STOCK.clone();
+            stacks[i].setAmount(Math.min(max, total - i * max));
+        }
+        return stacks;
+    }
+
+    /**
+     * Checks if an item stack is the same kind of item as the stock, ignoring amounts.
+     * This does not clone the stock.
+     *
+     * @param item An item stack.
+     * @return True if the item stack is similar to the stock.
+     * @see ItemStack#isSimilar(ItemStack)
+     */
+    public boolean isSimilar(ItemStack item) {
+        return STOCK.isSimilar(item);
+    }
+
+    /**
+     * Checks if two purchase data trade the same stock for the same price.
+     *
+     * @param a Purchase data, or null.
+     * @param b Purchase data, or null.
+     * @return True if both are null, or both trade the same stock for the same price.
+     */
+    static boolean matches(PurchaseData a, PurchaseData b) {
+        if (a == null || b == null) return a == b;
+        return a.STOCK.equals(b.STOCK) && a.PRICE.equals(b.PRICE);
+    }
+
     /**
      * Returns the amount of stock in consideration.
      *
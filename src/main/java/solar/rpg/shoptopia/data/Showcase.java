@@ -1,10 +1,13 @@
 package solar.rpg.shoptopia.data;
 
 import org.bukkit.Location;
+import org.bukkit.Material;
 import org.bukkit.World;
-import org.bukkit.entity.Item;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.Chest;
+import org.bukkit.entity.Entity;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.util.Vector;
 import solar.rpg.shoptopia.Main;
 import solar.rpg.shoptopia.player.ShopListener;
 
@@ -28,8 +31,29 @@ public class Showcase {
     private Location SHOWCASE_LOCATION;
     private ItemStack ICON;
 
-    /* Item drop displayed on showcase. */
-    private Item SHOWCASE_DROP;
+    /* Renderer which puts the icon on display. */
+    private ShowcaseRenderer RENDERER;
+    /* True while the showcase is spawning its own display. */
+    private boolean RESPAWNING;
+
+    /* Clickspace keys registered by this showcase. See BlockKey. */
+    private long[] CLICKSPACE_KEYS;
+    /* Slot of this showcase in its island's registry. -1 if not registered. */
+    private int ISLAND_SLOT = -1;
+    /* Last proximity sweep which found a player near this showcase. */
+    private int SWEEP;
+    /* Cached amount of stock in a player showcase's chest. -1 if it needs to be counted again. */
+    private int STOCK = -1;
+    /* Amount of stock reserved by purchases which are still being paid for. */
+    private int RESERVED;
+
+    /* Sales counters of this showcase, and of every showcase on its island. */
+    private final ShowcaseStats STATS;
+    private final ShowcaseStats ISLAND_STATS;
+
+    /* Rendered buy and sell messages for a single lot, and the message version they were rendered with. */
+    private String BUY_PREVIEW, BUY_SUCCESS, SELL_PREVIEW, SELL_SUCCESS;
+    private int RENDERED_VERSION = -1;
 
     /**
      * Showcase constructor.
@@ -50,7 +74,12 @@ public class Showcase {
         this.SELL_DATA = SELL_DATA;
         this.RESTRICTED = RESTRICTED;
         this.OWNER_ID = OWNER_ID;
+        RENDERER = PLUGIN.getHandler().createRenderer();
         SHOWCASE_LOCATION = new Location(creationWorld, x, y, z);
+        // The world needs an index before the showcase's counters are keyed by its position.
+        BlockKey.register(creationWorld);
+        STATS = PLUGIN.getHandler().getStats().showcase(this);
+        ISLAND_STATS = PLUGIN.getHandler().getStats().island(OWNER_ID);
         create();
     }
 
@@ -67,15 +96,25 @@ public class Showcase {
     }
 
     /**
-     * Registers the showcase's clickspace with the listener.
+     * Registers the showcase's clickspace with the listener, and
+     * its column with the chunk index used for tamper checks.
      * Respawns the item drop for the showcase afterwards.
      *
      * @see ShopListener
+     * @see ChunkIndex
      */
     private void create() {
-        getShopListener().getClickspace().put(getPosition(), this);
-        getShopListener().getClickspace().put(getPosition().clone().subtract(0, 1, 0), this);
-        respawn();
+        World world = SHOWCASE_LOCATION.getWorld();
+        int x = SHOWCASE_LOCATION.getBlockX(), y = SHOWCASE_LOCATION.getBlockY(), z = SHOWCASE_LOCATION.getBlockZ();
+        int index = BlockKey.register(world);
+        CLICKSPACE_KEYS = new long[]{BlockKey.pack(index, x, y, z), BlockKey.pack(index, x, y - 1, z)};
+        for (long key : CLICKSPACE_KEYS)
+            getShopListener().getClickspace().put(key, this);
+        PLUGIN.getHandler().getChunkIndex().add(this);
+
+        // Lazily displayed showcases are put on display by the proximity sweeper instead.
+        if (!PLUGIN.getHandler().isLazyDisplay())
+            respawn();
     }
 
     /**
@@ -85,28 +124,52 @@ public class Showcase {
         return RESTRICTED;
     }
 
+    /**
+     * Spawns the display for the showcase, unless a valid one is already shown.
+     * Nothing is spawned while the showcase's chunk is unloaded; the chunk listener
+     * respawns the display once the chunk is loaded again.
+     *
+     * @see solar.rpg.shoptopia.player.ChunkListener
+     */
     public void respawn() {
         World world = SHOWCASE_LOCATION.getWorld();
-        if (SHOWCASE_DROP != null) {
-            if (SHOWCASE_DROP.isValid() && !SHOWCASE_DROP.isDead()) return;
-            if (!SHOWCASE_LOCATION.getChunk().isLoaded()) return;
-            getShopListener().getExempt().remove(SHOWCASE_DROP);
-            SHOWCASE_DROP.remove();
+        if (!world.isChunkLoaded(SHOWCASE_LOCATION.getBlockX() >> 4, SHOWCASE_LOCATION.getBlockZ() >> 4)) return;
+        if (RENDERER.isShown()) return;
+
+        // The spawn event fires before the display is assigned, so let the tamper listener know it is ours.
+        RESPAWNING = true;
+        try {
+            RENDERER.show(SHOWCASE_LOCATION, ICON);
+        } finally {
+            RESPAWNING = false;
         }
-        SHOWCASE_DROP = world.dropItem(SHOWCASE_LOCATION.clone().add(0.5, 0.505, 0.5), ICON);
-        SHOWCASE_DROP.setVelocity(new Vector(0, -1, 0));
-        SHOWCASE_DROP.setPickupDelay(9999 * 9999);
-        getShopListener().getExempt().add(SHOWCASE_DROP);
     }
 
     /**
-     * Destroys the item drop associated with this showcase.
+     * Releases the display for the showcase, if it has one.
+     * Used when the showcase's chunk unloads, so that displays are never saved with the chunk.
+     */
+    public void despawn() {
+        if (RENDERER != null)
+            RENDERER.hide();
+    }
+
+    /**
+     * @return True if the showcase is currently spawning its own display.
+     */
+    public boolean isRespawning() {
+        return RESPAWNING;
+    }
+
+    /**
+     * Destroys the display associated with this showcase, and removes its clickspace.
      * Removes information about itself to speed up GC.
      */
     public void destroy() {
-        getShopListener().getExempt().remove(SHOWCASE_DROP);
-        SHOWCASE_DROP.remove();
-        SHOWCASE_DROP = null;
+        getShopListener().removeClickspace(this);
+        PLUGIN.getHandler().getChunkIndex().remove(this);
+        despawn();
+        RENDERER = null;
         PLUGIN = null;
         ICON = null;
         BUY_DATA = null;
@@ -114,21 +177,260 @@ public class Showcase {
         SHOWCASE_LOCATION = null;
     }
 
+    /**
+     * @return True if this showcase has been destroyed.
+     */
+    public boolean isDestroyed() {
+        return PLUGIN == null;
+    }
+
     /**
      * Showcases can belong to either the admin shop or an island.
-     * There are different (but similar) listener classes for both.
+     * Both are dispatched by the same shop listener.
      *
-     * @return Appropriate shop listener for th is showcase.
+     * @return The shop listener.
      */
     private ShopListener getShopListener() {
-        return isAdminShop() ? PLUGIN.getAdminShopListener() : PLUGIN.getPlayerShopListener();
+        return PLUGIN.getShopListener();
+    }
+
+    /**
+     * Returns the amount of items in a player showcase's chest that match its stock,
+     * less any stock reserved by purchases in progress.
+     * The chest is only scanned if the cached amount was invalidated.
+     *
+     * @return Amount of available stock in the chest, or 0 if the chest is missing.
+     * @see #invalidateStock()
+     */
+    public int getStock() {
+        if (STOCK < 0)
+            STOCK = countStock();
+        return Math.max(0, STOCK - RESERVED);
+    }
+
+    /**
+     * @return Amount of items in the chest below the showcase that match its stock.
+     */
+    private int countStock() {
+        Block block = SHOWCASE_LOCATION.getBlock().getRelative(BlockFace.DOWN);
+        if (BUY_DATA == null || block.getType() != Material.CHEST) return 0;
+        int total = 0;
+        for (ItemStack found : ((Chest) block.getState()).getBlockInventory().getContents())
+            if (BUY_DATA.isSimilar(found))
+                total += found.getAmount();
+        return total;
+    }
+
+    /**
+     * Forgets the cached amount of stock, so the chest is scanned on the next check.
+     * Called whenever the contents of the chest may have changed.
+     */
+    public void invalidateStock() {
+        STOCK = -1;
+    }
+
+    /**
+     * Reserves stock for a purchase which is being paid for.
+     *
+     * @param amount Amount of items reserved.
+     */
+    public void reserveStock(int amount) {
+        RESERVED += amount;
+    }
+
+    /**
+     * Gives up stock reserved for a purchase which did not go through.
+     *
+     * @param amount Amount of items reserved.
+     */
+    public void releaseStock(int amount) {
+        RESERVED = Math.max(0, RESERVED - amount);
+    }
+
+    /**
+     * Updates the cached amount of stock after reserved items were taken from the chest.
+     *
+     * @param amount Amount of items taken.
+     */
+    public void takeStock(int amount) {
+        releaseStock(amount);
+        if (STOCK >= 0)
+            STOCK = Math.max(0, STOCK - amount);
+    }
+
+    /**
+     * Replaces what the showcase trades. The cached stock and rendered messages are thrown away.
+     *
+     * @param BUY_DATA  The showcase's buyable item, if any.
+     * @param SELL_DATA The showcase's sellable item, if any.
+     */
+    void setPurchaseData(PurchaseData BUY_DATA, PurchaseData SELL_DATA) {
+        this.BUY_DATA = BUY_DATA;
+        this.SELL_DATA = SELL_DATA;
+        invalidateStock();
+        RENDERED_VERSION = -1;
+    }
+
+    /**
+     * Renders the showcase's buy and sell messages, unless they are already rendered
+     * with the current messages. Clicks therefore do no formatting.
+     *
+     * @return The player-facing messages.
+     */
+    private Messages render() {
+        Messages messages = PLUGIN.getHandler().getMessages();
+        if (RENDERED_VERSION == messages.getVersion()) return messages;
+        BUY_PREVIEW = BUY_SUCCESS = SELL_PREVIEW = SELL_SUCCESS = null;
+        if (BUY_DATA != null) {
+            BUY_PREVIEW = messages.render(Message.BUY_AMT_FOR, BUY_DATA.getAmount(), BUY_DATA.getPrice());
+            BUY_SUCCESS = messages.render(Message.BUY_SUCCESS, BUY_DATA.getAmount(), BUY_DATA.getPrice());
+        }
+        if (SELL_DATA != null) {
+            SELL_PREVIEW = messages.render(Message.SELL_AMT_FOR, SELL_DATA.getAmount(), SELL_DATA.getPrice());
+            SELL_SUCCESS = messages.render(Message.SELL_SUCCESS, SELL_DATA.getAmount(), SELL_DATA.getPrice());
+        }
+        RENDERED_VERSION = messages.getVersion();
+        return messages;
+    }
+
+    /**
+     * @return Preview of the showcase's buying price. Only valid if you can buy from this showcase.
+     */
+    public String getBuyPreview() {
+        render();
+        return BUY_PREVIEW;
     }
 
     /**
-     * @return The showcase's item drop on display.
+     * @param lots Amount of lots bought.
+     * @return Message for a successful purchase. Only valid if you can buy from this showcase.
      */
-    public Item getShowcaseDrop() {
-        return SHOWCASE_DROP;
+    public String getBuySuccess(int lots) {
+        Messages messages = render();
+        if (lots == 1) return BUY_SUCCESS;
+        return messages.render(Message.BUY_SUCCESS, (long) BUY_DATA.getAmount() * lots, BUY_DATA.getPrice() * lots);
+    }
+
+    /**
+     * @return Preview of the showcase's selling price. Only valid if you can sell to this showcase.
+     */
+    public String getSellPreview() {
+        render();
+        return SELL_PREVIEW;
+    }
+
+    /**
+     * @param lots Amount of lots sold.
+     * @return Message for a successful sale. Only valid if you can sell to this showcase.
+     */
+    public String getSellSuccess(int lots) {
+        Messages messages = render();
+        if (lots == 1) return SELL_SUCCESS;
+        return messages.render(Message.SELL_SUCCESS, (long) SELL_DATA.getAmount() * lots, SELL_DATA.getPrice() * lots);
+    }
+
+    /**
+     * @return Snapshot of this showcase's sales counters.
+     */
+    public ShowcaseStats.Snapshot getStats() {
+        return STATS.snapshot();
+    }
+
+    /**
+     * Counts a price preview shown for this showcase.
+     */
+    public void recordPreview() {
+        STATS.preview();
+        ISLAND_STATS.preview();
+    }
+
+    /**
+     * Counts a purchase from this showcase.
+     *
+     * @param amount Amount of items bought.
+     * @param price  Money paid.
+     */
+    public void recordPurchase(int amount, double price) {
+        STATS.purchase(amount, price);
+        ISLAND_STATS.purchase(amount, price);
+    }
+
+    /**
+     * Counts a sale to this showcase.
+     *
+     * @param amount Amount of items sold.
+     * @param price  Money paid out.
+     */
+    public void recordSale(int amount, double price) {
+        STATS.sale(amount, price);
+        ISLAND_STATS.sale(amount, price);
+    }
+
+    /**
+     * Counts a failed attempt to buy from or sell to this showcase.
+     */
+    public void recordFailure() {
+        STATS.failure();
+        ISLAND_STATS.failure();
+    }
+
+    /**
+     * @return Packed positions of the blocks this showcase can be clicked on.
+     * @see BlockKey
+     */
+    public long[] getClickspaceKeys() {
+        return CLICKSPACE_KEYS;
+    }
+
+    /**
+     * @return Slot of this showcase in its island's registry, or -1.
+     * @see IslandShowcases
+     */
+    int getIslandSlot() {
+        return ISLAND_SLOT;
+    }
+
+    /**
+     * @param slot Slot of this showcase in its island's registry, or -1.
+     */
+    void setIslandSlot(int slot) {
+        ISLAND_SLOT = slot;
+    }
+
+    /**
+     * @return Last proximity sweep which found a player near this showcase.
+     * @see ProximitySweeper
+     */
+    int getSweep() {
+        return SWEEP;
+    }
+
+    /**
+     * @param sweep Current proximity sweep.
+     */
+    void setSweep(int sweep) {
+        SWEEP = sweep;
+    }
+
+    /**
+     * @return The showcase's display entity, if it is on display.
+     */
+    public Entity getShowcaseDrop() {
+        return RENDERER.getEntity();
+    }
+
+    /**
+     * @return The material of the item on display.
+     */
+    public Material getIconType() {
+        return ICON.getType();
+    }
+
+    /**
+     * @return Owning island's ID. -1 if admin shop.
+     */
+    public int getOwnerID() {
+        return OWNER_ID;
     }
 
     /**
@@ -138,6 +440,13 @@ public class Showcase {
         return OWNER_ID == -1;
     }
 
+    /**
+     * @return The item the showcase displays. This is not a copy.
+     */
+    ItemStack getIcon() {
+        return ICON;
+    }
+
     /**
      * @return The showcase's location.
      */
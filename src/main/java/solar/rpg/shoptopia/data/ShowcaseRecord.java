@@ -0,0 +1,192 @@
+package solar.rpg.shoptopia.data;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.inventory.ItemStack;
+import solar.rpg.shoptopia.Main;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Everything needed to create a showcase, as read from shops.xml or the database.
+ * Records are plain data, so they can be read off the main thread.
+ * Only building the showcase from its record touches the world.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see Loader
+ * @since 1.1
+ */
+class ShowcaseRecord {
+
+    private final int X, Y, Z;
+    /* Name of the world the showcase is in. */
+    private final String WORLD;
+    private final ItemStack ICON;
+    private final PurchaseData BUY_DATA;
+    private final PurchaseData SELL_DATA;
+    private final boolean RESTRICTED;
+    /* Owning island's ID. -1 if admin shop. */
+    private final int OWNER_ID;
+
+    ShowcaseRecord(int X, int Y, int Z, String WORLD, ItemStack ICON, PurchaseData BUY_DATA, PurchaseData SELL_DATA, boolean RESTRICTED, int OWNER_ID) {
+        this.X = X;
+        this.Y = Y;
+        this.Z = Z;
+        this.WORLD = WORLD;
+        this.ICON = ICON;
+        this.BUY_DATA = BUY_DATA;
+        this.SELL_DATA = SELL_DATA;
+        this.RESTRICTED = RESTRICTED;
+        this.OWNER_ID = OWNER_ID;
+    }
+
+    /**
+     * Must be called on the main thread.
+     *
+     * @param sc An existing showcase.
+     * @return A record of the showcase as it is now.
+     */
+    static ShowcaseRecord of(Showcase sc) {
+        Location pos = sc.getPosition();
+        return new ShowcaseRecord(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ(), pos.getWorld().getName(),
+                sc.getIcon().clone(), sc.getBuyData(), sc.getSellData(), sc.isDonatorOnly(), sc.getOwnerID());
+    }
+
+    /**
+     * Writes the record, with its items encoded by ItemCodec.
+     *
+     * @param out Where to write the record.
+     * @throws IOException Unable to write the record.
+     * @see #read(ByteBuffer, ItemCodec)
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(X);
+        out.writeInt(Y);
+        out.writeInt(Z);
+        byte[] world = WORLD.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(world.length);
+        out.write(world);
+        out.writeInt(OWNER_ID);
+        out.writeBoolean(RESTRICTED);
+        writeItem(out, ICON);
+        for (PurchaseData data : new PurchaseData[]{BUY_DATA, SELL_DATA}) {
+            out.writeBoolean(data != null);
+            if (data == null) continue;
+            writeItem(out, data.getStock());
+            out.writeDouble(data.getPrice());
+        }
+    }
+
+    /**
+     * @param out  Where to write the item.
+     * @param item An item stack.
+     * @throws IOException Unable to write the item.
+     */
+    private static void writeItem(DataOutputStream out, ItemStack item) throws IOException {
+        byte[] encoded = ItemCodec.encode(item);
+        out.writeShort(encoded.length);
+        out.write(encoded);
+        out.writeInt(item.getAmount());
+    }
+
+    /**
+     * Reads a record written by write(DataOutputStream).
+     *
+     * @param buf   The buffer to read from, at the start of a record.
+     * @param codec Decodes the record's items.
+     * @return The record.
+     * @throws IllegalArgumentException The record is not valid.
+     */
+    static ShowcaseRecord read(ByteBuffer buf, ItemCodec codec) {
+        int x = buf.getInt(), y = buf.getInt(), z = buf.getInt();
+        byte[] world = new byte[buf.getShort() & 0xFFFF];
+        buf.get(world);
+        int ownerID = buf.getInt();
+        boolean restricted = buf.get() != 0;
+        ItemStack icon = readItem(buf, codec);
+        PurchaseData[] data = new PurchaseData[2];
+        for (int i = 0; i < data.length; i++)
+            if (buf.get() != 0)
+                data[i] = new PurchaseData(readItem(buf, codec), buf.getDouble());
+        return new ShowcaseRecord(x, y, z, new String(world, StandardCharsets.UTF_8), icon, data[0], data[1], restricted, ownerID);
+    }
+
+    /**
+     * @param buf   The buffer to read from, at the start of an item.
+     * @param codec Decodes the item.
+     * @return The item stack.
+     */
+    private static ItemStack readItem(ByteBuffer buf, ItemCodec codec) {
+        byte[] encoded = new byte[buf.getShort() & 0xFFFF];
+        buf.get(encoded);
+        return codec.decode(encoded, buf.getInt());
+    }
+
+    /**
+     * Creates the showcase. Must be called on the main thread.
+     *
+     * @param PLUGIN Reference to JavaPlugin.
+     * @return The showcase, registered and on display.
+     */
+    Showcase build(Main PLUGIN) {
+        return new Showcase(PLUGIN, X, Y, Z, ICON, BUY_DATA, SELL_DATA, RESTRICTED, OWNER_ID, Bukkit.getWorld(WORLD));
+    }
+
+    /**
+     * Must be called on the main thread.
+     *
+     * @return The packed position of the showcase. See BlockKey.
+     */
+    long getKey() {
+        return BlockKey.pack(BlockKey.register(Bukkit.getWorld(WORLD)), X, Y, Z);
+    }
+
+    /**
+     * @param sc The existing showcase at the same position.
+     * @return What would need to change for the showcase to match this record.
+     */
+    Change compare(Showcase sc) {
+        // Icons of showcases made with /shop create hold a single item, while stored icons hold a whole lot.
+        if (sc.getOwnerID() != OWNER_ID || sc.isDonatorOnly() != RESTRICTED || !ICON.isSimilar(sc.getIcon()))
+            return Change.DISPLAY;
+        if (!PurchaseData.matches(BUY_DATA, sc.getBuyData()) || !PurchaseData.matches(SELL_DATA, sc.getSellData()))
+            return Change.TRADE;
+        return Change.NONE;
+    }
+
+    /**
+     * Makes an existing showcase trade what this record says, leaving its display alone.
+     *
+     * @param sc The existing showcase at the same position.
+     */
+    void update(Showcase sc) {
+        sc.setPurchaseData(BUY_DATA, SELL_DATA);
+    }
+
+    int getOwnerID() {
+        return OWNER_ID;
+    }
+
+    /**
+     * @return The showcase's coordinates, for logging.
+     */
+    String getCoordinates() {
+        return X + "," + Y + "," + Z;
+    }
+
+    /**
+     * Differences between a record and an existing showcase.
+     */
+    enum Change {
+        /* The showcase already matches the record. */
+        NONE,
+        /* The showcase trades something else, which can be changed in place. */
+        TRADE,
+        /* The showcase is displayed or owned differently, and must be built again. */
+        DISPLAY
+    }
+}
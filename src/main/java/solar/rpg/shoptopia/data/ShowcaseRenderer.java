@@ -0,0 +1,53 @@
+package solar.rpg.shoptopia.data;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * A showcase renderer puts a showcase's icon on display.
+ * Each showcase has its own renderer, which owns at most one display entity.
+ * The kind of renderer used is chosen in the configuration.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see Handler#createRenderer()
+ * @since 1.1
+ */
+public interface ShowcaseRenderer {
+
+    /**
+     * Spawns the display entity, replacing any existing one.
+     * Display entities must be tagged as showcase drops.
+     *
+     * @param position The showcase's location (the half slab).
+     * @param icon     The item to display.
+     * @see Handler#isShowcaseDrop(Entity)
+     */
+    void show(Location position, ItemStack icon);
+
+    /**
+     * Removes the display entity, if there is one.
+     */
+    void hide();
+
+    /**
+     * @return True if the display entity exists and is still valid.
+     */
+    boolean isShown();
+
+    /**
+     * @return The display entity, or null if there is none.
+     */
+    Entity getEntity();
+
+    /**
+     * Kinds of showcase renderers, as named in the configuration.
+     */
+    enum Type {
+        /* A real item drop, as showcases have always used. */
+        ITEM,
+        /* An invisible marker armor stand wearing the icon, which is far cheaper to tick. */
+        STAND
+    }
+}
@@ -0,0 +1,137 @@
+package solar.rpg.shoptopia.data;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sales counters of a single showcase, or of every showcase on an island.
+ * Counters are adders, so recording never contends with the stats flush or commands
+ * reading them from other threads. Counters only ever go up; readers take snapshots.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see Stats
+ * @since 1.1
+ */
+public class ShowcaseStats {
+
+    private final LongAdder PREVIEWS = new LongAdder();
+    private final LongAdder PURCHASES = new LongAdder();
+    private final LongAdder SALES = new LongAdder();
+    private final LongAdder ITEMS_BOUGHT = new LongAdder();
+    private final LongAdder ITEMS_SOLD = new LongAdder();
+    private final LongAdder FAILURES = new LongAdder();
+    /* Money received from purchases, and money paid out for sales. */
+    private final DoubleAdder REVENUE = new DoubleAdder();
+    private final DoubleAdder PAYOUTS = new DoubleAdder();
+
+    void preview() {
+        PREVIEWS.increment();
+    }
+
+    void purchase(int amount, double price) {
+        PURCHASES.increment();
+        ITEMS_BOUGHT.add(amount);
+        REVENUE.add(price);
+    }
+
+    void sale(int amount, double price) {
+        SALES.increment();
+        ITEMS_SOLD.add(amount);
+        PAYOUTS.add(price);
+    }
+
+    void failure() {
+        FAILURES.increment();
+    }
+
+    /**
+     * @return The current value of every counter.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(PREVIEWS.sum(), PURCHASES.sum(), SALES.sum(), ITEMS_BOUGHT.sum(), ITEMS_SOLD.sum(),
+                FAILURES.sum(), REVENUE.sum(), PAYOUTS.sum());
+    }
+
+    /**
+     * Values of a showcase's counters at one point in time.
+     */
+    public static final class Snapshot {
+
+        /* Snapshot with every counter at zero. */
+        static final Snapshot EMPTY = new Snapshot(0, 0, 0, 0, 0, 0, 0, 0);
+
+        private final long PREVIEWS, PURCHASES, SALES, ITEMS_BOUGHT, ITEMS_SOLD, FAILURES;
+        private final double REVENUE, PAYOUTS;
+
+        private Snapshot(long PREVIEWS, long PURCHASES, long SALES, long ITEMS_BOUGHT, long ITEMS_SOLD, long FAILURES, double REVENUE, double PAYOUTS) {
+            this.PREVIEWS = PREVIEWS;
+            this.PURCHASES = PURCHASES;
+            this.SALES = SALES;
+            this.ITEMS_BOUGHT = ITEMS_BOUGHT;
+            this.ITEMS_SOLD = ITEMS_SOLD;
+            this.FAILURES = FAILURES;
+            this.REVENUE = REVENUE;
+            this.PAYOUTS = PAYOUTS;
+        }
+
+        /**
+         * @param other An earlier snapshot of the same counters.
+         * @return What has changed since the earlier snapshot.
+         */
+        Snapshot since(Snapshot other) {
+            return new Snapshot(PREVIEWS - other.PREVIEWS, PURCHASES - other.PURCHASES, SALES - other.SALES,
+                    ITEMS_BOUGHT - other.ITEMS_BOUGHT, ITEMS_SOLD - other.ITEMS_SOLD, FAILURES - other.FAILURES,
+                    REVENUE - other.REVENUE, PAYOUTS - other.PAYOUTS);
+        }
+
+        /**
+         * @param other Another snapshot.
+         * @return Both snapshots added together.
+         */
+        Snapshot plus(Snapshot other) {
+            return new Snapshot(PREVIEWS + other.PREVIEWS, PURCHASES + other.PURCHASES, SALES + other.SALES,
+                    ITEMS_BOUGHT + other.ITEMS_BOUGHT, ITEMS_SOLD + other.ITEMS_SOLD, FAILURES + other.FAILURES,
+                    REVENUE + other.REVENUE, PAYOUTS + other.PAYOUTS);
+        }
+
+        /**
+         * @return True if nothing was counted.
+         */
+        boolean isEmpty() {
+            return PREVIEWS == 0 && PURCHASES == 0 && SALES == 0 && FAILURES == 0;
+        }
+
+        public long getPreviews() {
+            return PREVIEWS;
+        }
+
+        public long getPurchases() {
+            return PURCHASES;
+        }
+
+        public long getSales() {
+            return SALES;
+        }
+
+        public long getItemsBought() {
+            return ITEMS_BOUGHT;
+        }
+
+        public long getItemsSold() {
+            return ITEMS_SOLD;
+        }
+
+        public long getFailures() {
+            return FAILURES;
+        }
+
+        public double getRevenue() {
+            return REVENUE;
+        }
+
+        public double getPayouts() {
+            return PAYOUTS;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package solar.rpg.shoptopia.data;
+
+import org.bukkit.Location;
+import solar.rpg.shoptopia.Main;
+import solar.rpg.skyblock.stored.Database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * ShowcaseStore writes player showcase changes to the Shops table in the background.
+ * Creations and removals are buffered by position, so only the latest change to each
+ * position is ever written. A showcase which is created and then removed before it is
+ * written never reaches the database at all. The buffer is written as two JDBC batches
+ * once it is large enough, or every so often, on a single persistence thread so that
+ * writes reach the database in the order they were flushed.
+ * <p>
+ * Anything reading the table in the background can watch for changes made while
+ * it reads, since those changes may or may not be in what it has read.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @since 1.1
+ */
+public class ShowcaseStore {
+
+    /* Times a write is attempted before it is given up on. */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /* The database. */
+    private final Database DB;
+
+    /* Single thread which writes every batch. */
+    private final ExecutorService EXECUTOR;
+
+    /* Latest unwritten change at each position, by packed position. See BlockKey. */
+    private LinkedHashMap<Long, Write> PENDING;
+
+    /* Amount of pending changes which causes an immediate flush. */
+    private int BATCH_SIZE;
+
+    /* Positions changed since each watch began, by packed position. */
+    private final List<Set<Long>> WATCHES;
+
+    /* Set if a change was given up on, or its revision was not recorded. The table may not match the showcases. */
+    private volatile boolean LOST;
+
+    ShowcaseStore(Database DB) {
+        this.DB = DB;
+        EXECUTOR = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "Shoptopia-Persistence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        PENDING = new LinkedHashMap<>();
+        WATCHES = new ArrayList<>();
+        BATCH_SIZE = 64;
+    }
+
+    /**
+     * @param batchSize Amount of pending changes which causes an immediate flush.
+     */
+    void configure(int batchSize) {
+        BATCH_SIZE = Math.max(1, batchSize);
+    }
+
+    /**
+     * Stores a new player showcase. Must be called on the main thread.
+     *
+     * @param pos     Position of the showcase.
+     * @param ownerID Owning island ID.
+     * @param amount  Amount of items bought at once.
+     * @param price   Price of the items.
+     * @param product The item, encoded by ItemCodec.
+     */
+    public synchronized void create(Location pos, int ownerID, int amount, int price, byte[] product) {
+        long key = BlockKey.of(pos);
+        changed(key);
+        Write previous = PENDING.get(key);
+
+        // If a stored showcase is being replaced, the row already exists and must be overwritten.
+        boolean replaces = previous != null && (previous.isRemoval() || previous.REPLACES);
+        PENDING.put(key, new Write(pos, ownerID, amount, price, product, replaces));
+        if (PENDING.size() >= BATCH_SIZE)
+            flush();
+    }
+
+    /**
+     * Forgets a stored player showcase. Must be called on the main thread.
+     *
+     * @param pos Position of the showcase.
+     */
+    public synchronized void remove(Location pos) {
+        long key = BlockKey.of(pos);
+        changed(key);
+        Write previous = PENDING.get(key);
+
+        // A showcase that was never written can simply be forgotten.
+        if (previous != null && !previous.isRemoval() && !previous.REPLACES) {
+            PENDING.remove(key);
+            return;
+        }
+        PENDING.put(key, new Write(pos, 0, 0, 0, null, false));
+        if (PENDING.size() >= BATCH_SIZE)
+            flush();
+    }
+
+    /**
+     * @param key Packed position of a showcase which was created or removed.
+     */
+    private void changed(long key) {
+        for (Set<Long> watch : WATCHES)
+            watch.add(key);
+    }
+
+    /**
+     * Starts recording which positions are changed. Must be called on the main thread,
+     * before the changes made so far are flushed, so that every change is either
+     * written before the table is read or recorded.
+     *
+     * @return Packed positions changed from now on. Only changed on the main thread.
+     * @see #unwatch(Set)
+     */
+    synchronized Set<Long> watch() {
+        Set<Long> watch = new HashSet<>();
+        WATCHES.add(watch);
+        return watch;
+    }
+
+    /**
+     * @param watch A watch which is no longer needed.
+     */
+    synchronized void unwatch(Set<Long> watch) {
+        // Watches are compared by identity, since two watches may hold the same positions.
+        WATCHES.removeIf(existing -> existing == watch);
+    }
+
+    /**
+     * Hands every pending change to the persistence thread to be written.
+     *
+     * @return Completes once every change handed over so far has been written, or has failed.
+     */
+    public synchronized CompletableFuture<Void> flush() {
+        if (!PENDING.isEmpty()) {
+            LinkedHashMap<Long, Write> batch = PENDING;
+            PENDING = new LinkedHashMap<>();
+            EXECUTOR.execute(() -> write(batch));
+        }
+
+        // Batches are written in order, so this runs once everything before it is written.
+        return CompletableFuture.runAsync(() -> {
+        }, EXECUTOR);
+    }
+
+    /**
+     * Writes a batch of changes. Changes which fail are put back to be tried again,
+     * unless something newer has happened at the same position since.
+     *
+     * @param batch Changes to write, by packed position.
+     */
+    private void write(LinkedHashMap<Long, Write> batch) {
+        boolean written = false;
+        List<Long> removals = new ArrayList<>();
+        List<Long> creations = new ArrayList<>();
+        for (Map.Entry<Long, Write> entry : batch.entrySet())
+            (entry.getValue().isRemoval() ? removals : creations).add(entry.getKey());
+
+        if (!removals.isEmpty())
+            try (PreparedStatement delete = DB.prepare("DELETE FROM `Shops` WHERE (`world`, `x`, `z`, `y`) = (?,?,?,?)")) {
+                for (Long key : removals) {
+                    Write write = batch.get(key);
+                    delete.setString(1, write.WORLD);
+                    delete.setInt(2, write.X);
+                    delete.setInt(3, write.Z);
+                    delete.setInt(4, write.Y);
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+                written = true;
+            } catch (SQLException ex) {
+                retry(batch, removals, ex);
+            }
+
+        if (!creations.isEmpty())
+            try (PreparedStatement insert = DB.prepare("INSERT INTO `Shops`(`owner_id`, `world`, `x`, `y`, `z`, `amount`, `price`, `product`) " +
+                    "VALUES (?,?,?,?,?,?,?,?) ON DUPLICATE KEY UPDATE `owner_id` = VALUES(`owner_id`), " +
+                    "`amount` = VALUES(`amount`), `price` = VALUES(`price`), `product` = VALUES(`product`)")) {
+                for (Long key : creations) {
+                    Write write = batch.get(key);
+                    insert.setInt(1, write.OWNER_ID);
+                    insert.setString(2, write.WORLD);
+                    insert.setInt(3, write.X);
+                    insert.setInt(4, write.Y);
+                    insert.setInt(5, write.Z);
+                    insert.setInt(6, write.AMOUNT);
+                    insert.setInt(7, write.PRICE);
+                    insert.setBytes(8, write.PRODUCT);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                written = true;
+            } catch (SQLException ex) {
+                retry(batch, creations, ex);
+            }
+
+        // Let snapshots of the table know it has changed.
+        if (written)
+            try {
+                Loader.bumpRevision(DB);
+            } catch (SQLException ex) {
+                Main.log(Level.WARNING, "Unable to update the Shops table revision: " + ex.getMessage());
+                LOST = true;
+            }
+    }
+
+    /**
+     * Puts failed changes back into the buffer, giving up on any that have failed too many times.
+     *
+     * @param batch  The batch which was being written.
+     * @param failed Packed positions of the changes which failed.
+     * @param ex     Why they failed.
+     */
+    private synchronized void retry(LinkedHashMap<Long, Write> batch, List<Long> failed, SQLException ex) {
+        Main.log(Level.WARNING, String.format("Unable to write %d player showcase changes: %s", failed.size(), ex.getMessage()));
+        for (Long key : failed) {
+            Write write = batch.get(key);
+            Write newer = PENDING.get(key);
+
+            // A creation buffered while this removal was in flight assumed the row was gone.
+            // It must overwrite the row instead, so that a later removal still deletes it.
+            if (write.isRemoval() && newer != null && !newer.isRemoval() && !newer.REPLACES)
+                PENDING.put(key, newer.replacing());
+            if (++write.ATTEMPTS >= MAX_ATTEMPTS) {
+                Main.log(Level.SEVERE, String.format("Giving up on writing player showcase at %s,%d,%d,%d.", write.WORLD, write.X, write.Y, write.Z));
+                LOST = true;
+            } else if (newer == null)
+                PENDING.put(key, write);
+        }
+    }
+
+    /**
+     * Writes every pending change, waiting a bounded time for them to finish.
+     * Must be called on the main thread.
+     */
+    public void shutdown() {
+        flush();
+        EXECUTOR.shutdown();
+        try {
+            if (!EXECUTOR.awaitTermination(10, TimeUnit.SECONDS))
+                Main.log(Level.SEVERE, "Timed out waiting for player showcase changes to be written!");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (!PENDING.isEmpty())
+                Main.log(Level.SEVERE, String.format("%d player showcase changes could not be written!", PENDING.size()));
+        }
+    }
+
+    /**
+     * @return True if every change so far has been written, and nothing is waiting to be written.
+     */
+    public synchronized boolean isSynced() {
+        return !LOST && PENDING.isEmpty();
+    }
+
+    /**
+     * The latest change at a single position.
+     */
+    private static final class Write {
+
+        private final String WORLD;
+        private final int X, Y, Z;
+        private final int OWNER_ID;
+        private final int AMOUNT;
+        private final int PRICE;
+        /* Encoded item. Null if the showcase was removed. */
+        private final byte[] PRODUCT;
+        /* Whether this creation overwrites a row that may already be stored. */
+        private final boolean REPLACES;
+        /* Times this change has failed to be written. Only touched while retrying. */
+        private int ATTEMPTS;
+
+        private Write(Location pos, int OWNER_ID, int AMOUNT, int PRICE, byte[] PRODUCT, boolean REPLACES) {
+            WORLD = pos.getWorld().getName();
+            X = pos.getBlockX();
+            Y = pos.getBlockY();
+            Z = pos.getBlockZ();
+            this.OWNER_ID = OWNER_ID;
+            this.AMOUNT = AMOUNT;
+            this.PRICE = PRICE;
+            this.PRODUCT = PRODUCT;
+            this.REPLACES = REPLACES;
+        }
+
+        private Write(Write write, boolean REPLACES) {
+            WORLD = write.WORLD;
+            X = write.X;
+            Y = write.Y;
+            Z = write.Z;
+            OWNER_ID = write.OWNER_ID;
+            AMOUNT = write.AMOUNT;
+            PRICE = write.PRICE;
+            PRODUCT = write.PRODUCT;
+            this.REPLACES = REPLACES;
+            ATTEMPTS = write.ATTEMPTS;
+        }
+
+        /**
+         * @return The same creation, overwriting a row that may already be stored.
+         */
+        private Write replacing() {
+            return new Write(this, true);
+        }
+
+        private boolean isRemoval() {
+            return PRODUCT == null;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package solar.rpg.shoptopia.data;
+
+import solar.rpg.shoptopia.Main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * A copy of every loaded showcase definition, kept in the data folder so that
+ * showcases can be put up straight away when the server starts. The snapshot
+ * remembers which version of shops.xml and of the Shops table it was taken from,
+ * so it can be checked in the background without parsing or querying either.
+ * The file is laid out as follows:
+ * <pre>
+ *   0  int    magic number
+ *   4  int    format version
+ *   8  int    CRC32 of the payload
+ *  12  int    length of the payload
+ *  16  long   last modified time of shops.xml
+ *      short  length of the SHA-256 of shops.xml, then the hash (empty if it did not exist)
+ *      long   revision of the Shops table
+ *      int    amount of admin showcases, then each showcase
+ *      int    amount of islands, then each island's ID, amount of showcases, and each showcase
+ * </pre>
+ * Showcases are written by ShowcaseRecord, with items encoded by ItemCodec.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see ShowcaseRecord#write(DataOutputStream)
+ * @since 1.1
+ */
+public class Snapshot {
+
+    /* File header: magic number, format version, payload checksum and payload length. */
+    private static final int HEADER_SIZE = 16;
+    private static final int MAGIC = 0x5348534E;
+    private static final int VERSION = 1;
+
+    private final long XML_MODIFIED;
+    private final byte[] XML_HASH;
+    private final long REVISION;
+    private final List<ShowcaseRecord> ADMIN;
+    /* Player showcases of every island in the snapshot, including islands without any. */
+    private final Map<Integer, List<ShowcaseRecord>> ISLANDS;
+
+    Snapshot(long XML_MODIFIED, byte[] XML_HASH, long REVISION, List<ShowcaseRecord> ADMIN, Map<Integer, List<ShowcaseRecord>> ISLANDS) {
+        this.XML_MODIFIED = XML_MODIFIED;
+        this.XML_HASH = XML_HASH;
+        this.REVISION = REVISION;
+        this.ADMIN = ADMIN;
+        this.ISLANDS = ISLANDS;
+    }
+
+    /**
+     * Reads a snapshot through a memory-mapped buffer.
+     *
+     * @param file The snapshot file.
+     * @return The snapshot, or null if it does not exist or is not valid.
+     */
+    static Snapshot read(File file) {
+        if (!file.isFile()) return null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) return invalid("wrong size");
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC) return invalid("not a snapshot");
+            if (buf.getInt() != VERSION) return invalid("different format version");
+            int checksum = buf.getInt();
+            int length = buf.getInt();
+            if (length != buf.remaining()) return invalid("truncated");
+            if (checksum != checksum(buf, HEADER_SIZE, length)) return invalid("checksum mismatch");
+
+            long modified = buf.getLong();
+            byte[] hash = new byte[buf.getShort() & 0xFFFF];
+            buf.get(hash);
+            long revision = buf.getLong();
+            ItemCodec codec = new ItemCodec();
+            List<ShowcaseRecord> admin = new ArrayList<>();
+            for (int i = buf.getInt(); i > 0; i--)
+                admin.add(ShowcaseRecord.read(buf, codec));
+            Map<Integer, List<ShowcaseRecord>> islands = new HashMap<>();
+            for (int i = buf.getInt(); i > 0; i--) {
+                int islandID = buf.getInt();
+                List<ShowcaseRecord> records = new ArrayList<>();
+                for (int j = buf.getInt(); j > 0; j--)
+                    records.add(ShowcaseRecord.read(buf, codec));
+                islands.put(islandID, records);
+            }
+            return new Snapshot(modified, hash, revision, admin, islands);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException ex) {
+            return invalid(ex.toString());
+        }
+    }
+
+    /**
+     * @param reason Why the snapshot could not be used.
+     * @return Null.
+     */
+    private static Snapshot invalid(String reason) {
+        Main.log(Level.WARNING, "Ignoring showcase snapshot: " + reason);
+        return null;
+    }
+
+    /**
+     * Writes the snapshot to a temporary file, then moves it over the old snapshot,
+     * so that a snapshot is never left half written.
+     *
+     * @param file The snapshot file.
+     * @throws IOException Unable to write the snapshot.
+     */
+    void write(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < HEADER_SIZE; i++)
+            out.write(0);
+        out.writeLong(XML_MODIFIED);
+        out.writeShort(XML_HASH.length);
+        out.write(XML_HASH);
+        out.writeLong(REVISION);
+        out.writeInt(ADMIN.size());
+        for (ShowcaseRecord record : ADMIN)
+            record.write(out);
+        out.writeInt(ISLANDS.size());
+        for (Map.Entry<Integer, List<ShowcaseRecord>> island : ISLANDS.entrySet()) {
+            out.writeInt(island.getKey());
+            out.writeInt(island.getValue().size());
+            for (ShowcaseRecord record : island.getValue())
+                record.write(out);
+        }
+        out.flush();
+
+        ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+        int length = buf.capacity() - HEADER_SIZE;
+        buf.putInt(MAGIC).putInt(VERSION).putInt(checksum(buf, HEADER_SIZE, length)).putInt(length);
+
+        // Snapshots taken on a reload and on shutdown can be written at the same time.
+        synchronized (Snapshot.class) {
+            File temp = new File(file.getPath() + ".tmp");
+            Files.write(temp.toPath(), buf.array());
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * @param buf    A buffer.
+     * @param offset Offset of the first byte.
+     * @param length Amount of bytes.
+     * @return CRC32 of the bytes.
+     */
+    private static int checksum(ByteBuffer buf, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer slice = buf.duplicate();
+        slice.position(offset).limit(offset + length);
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @param file A file.
+     * @return SHA-256 of the file, or an empty array if it does not exist.
+     * @throws IOException Unable to read the file.
+     */
+    static byte[] hash(File file) throws IOException {
+        if (!file.isFile()) return new byte[0];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] chunk = new byte[8192];
+            for (int read = in.read(chunk); read >= 0; read = in.read(chunk))
+                digest.update(chunk, 0, read);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * The last modified time is checked first; if it changed, the contents are hashed,
+     * so saving the file without changing it does not count as a change.
+     *
+     * @param xml The shops.xml file.
+     * @return True if shops.xml is the same as when the snapshot was taken.
+     */
+    boolean matchesXml(File xml) {
+        if (xml.lastModified() == XML_MODIFIED) return true;
+        try {
+            return Arrays.equals(hash(xml), XML_HASH);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return Last modified time of shops.xml when the snapshot was taken.
+     */
+    long getXmlModified() {
+        return XML_MODIFIED;
+    }
+
+    /**
+     * @return SHA-256 of shops.xml when the snapshot was taken.
+     */
+    byte[] getXmlHash() {
+        return XML_HASH;
+    }
+
+    /**
+     * @return Revision of the Shops table the snapshot was taken from.
+     */
+    long getRevision() {
+        return REVISION;
+    }
+
+    /**
+     * @return Admin showcases in the snapshot.
+     */
+    List<ShowcaseRecord> getAdmin() {
+        return ADMIN;
+    }
+
+    /**
+     * @return Player showcases in the snapshot, by island ID.
+     */
+    Map<Integer, List<ShowcaseRecord>> getIslands() {
+        return ISLANDS;
+    }
+}
@@ -0,0 +1,62 @@
+package solar.rpg.shoptopia.data;
+
+import org.bukkit.Location;
+import org.bukkit.NamespacedKey;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.Entity;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.persistence.PersistentDataType;
+
+/**
+ * Displays a showcase's icon on the head of an invisible, small marker armor stand.
+ * Marker armor stands have no hitbox and no gravity, so they cost very little
+ * to tick, cannot be picked up or merged, and let clicks through to the slab.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @since 1.1
+ */
+class StandRenderer implements ShowcaseRenderer {
+
+    /* Persistent data key which marks an entity as a showcase drop. */
+    private final NamespacedKey KEY;
+
+    /* Armor stand displayed on showcase. */
+    private ArmorStand STAND;
+
+    StandRenderer(NamespacedKey KEY) {
+        this.KEY = KEY;
+    }
+
+    public void show(Location position, ItemStack icon) {
+        hide();
+
+        // Lower the stand into the slab so that its helmet rests on top of the slab.
+        STAND = position.getWorld().spawn(position.clone().add(0.5, -0.15, 0.5), ArmorStand.class, stand -> {
+            stand.setVisible(false);
+            stand.setMarker(true);
+            stand.setSmall(true);
+            stand.setGravity(false);
+            stand.setBasePlate(false);
+            stand.setInvulnerable(true);
+            stand.setSilent(true);
+            stand.setCanPickupItems(false);
+            stand.getEquipment().setHelmet(icon);
+            stand.getPersistentDataContainer().set(KEY, PersistentDataType.BYTE, (byte) 1);
+        });
+    }
+
+    public void hide() {
+        if (STAND == null) return;
+        STAND.remove();
+        STAND = null;
+    }
+
+    public boolean isShown() {
+        return STAND != null && STAND.isValid() && !STAND.isDead();
+    }
+
+    public Entity getEntity() {
+        return STAND;
+    }
+}
@@ -0,0 +1,143 @@
+package solar.rpg.shoptopia.data;
+
+import solar.rpg.shoptopia.Main;
+import solar.rpg.skyblock.stored.Database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Stats keeps sales counters for every showcase and every island.
+ * Each showcase holds direct references to its own counters and its island's counters,
+ * so recording an interaction is only a couple of adder increments.
+ * Counters live here rather than on the showcase, so they survive a reload.
+ * Every so often, what has changed on each island is flushed to the ShopStats table.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see ShowcaseStats
+ * @since 1.1
+ */
+public class Stats {
+
+    /* Counters of each showcase, by packed position. See BlockKey. */
+    private final ConcurrentHashMap<Long, ShowcaseStats> SHOWCASES;
+    /* Counters of each island, by owning island ID. Admin showcases are counted under -1. */
+    private final ConcurrentHashMap<Integer, ShowcaseStats> ISLANDS;
+
+    /* What each island's counters were at the last flush. Only touched while flushing. */
+    private final HashMap<Integer, ShowcaseStats.Snapshot> FLUSHED;
+    /* Time of the last flush, in milliseconds. */
+    private long LAST_FLUSH;
+
+    Stats() {
+        SHOWCASES = new ConcurrentHashMap<>();
+        ISLANDS = new ConcurrentHashMap<>();
+        FLUSHED = new HashMap<>();
+        LAST_FLUSH = System.currentTimeMillis();
+    }
+
+    /**
+     * @param sc A showcase.
+     * @return The showcase's own counters.
+     */
+    ShowcaseStats showcase(Showcase sc) {
+        return SHOWCASES.computeIfAbsent(BlockKey.of(sc.getPosition()), key -> new ShowcaseStats());
+    }
+
+    /**
+     * @param islandID Owning island ID, or -1 for admin showcases.
+     * @return The island's counters.
+     */
+    ShowcaseStats island(int islandID) {
+        return ISLANDS.computeIfAbsent(islandID, id -> new ShowcaseStats());
+    }
+
+    /**
+     * Forgets the counters of a showcase which was removed or unloaded. Its island keeps its totals.
+     *
+     * @param sc A showcase.
+     */
+    public void forget(Showcase sc) {
+        SHOWCASES.remove(BlockKey.of(sc.getPosition()));
+    }
+
+    /**
+     * @param islandID Owning island ID, or -1 for admin showcases.
+     * @return Snapshot of the island's counters.
+     */
+    public ShowcaseStats.Snapshot getIsland(int islandID) {
+        ShowcaseStats stats = ISLANDS.get(islandID);
+        return stats == null ? ShowcaseStats.Snapshot.EMPTY : stats.snapshot();
+    }
+
+    /**
+     * @return Snapshot of every island's counters added together.
+     */
+    public ShowcaseStats.Snapshot getTotal() {
+        ShowcaseStats.Snapshot total = ShowcaseStats.Snapshot.EMPTY;
+        for (ShowcaseStats stats : ISLANDS.values())
+            total = total.plus(stats.snapshot());
+        return total;
+    }
+
+    /**
+     * Writes what has changed on each island since the last flush to the ShopStats table.
+     * Safe to call from any thread, but not from two at once.
+     *
+     * @param db The database.
+     */
+    synchronized void flush(Database db) {
+        long now = System.currentTimeMillis();
+        HashMap<Integer, ShowcaseStats.Snapshot> current = new HashMap<>();
+        List<Object[]> rows = new ArrayList<>();
+        for (Map.Entry<Integer, ShowcaseStats> entry : ISLANDS.entrySet()) {
+            ShowcaseStats.Snapshot snapshot = entry.getValue().snapshot();
+            ShowcaseStats.Snapshot delta = snapshot.since(FLUSHED.getOrDefault(entry.getKey(), ShowcaseStats.Snapshot.EMPTY));
+            current.put(entry.getKey(), snapshot);
+            if (!delta.isEmpty())
+                rows.add(new Object[]{entry.getKey(), delta});
+        }
+        if (rows.isEmpty()) {
+            LAST_FLUSH = now;
+            return;
+        }
+
+        // A failed batch may have written some rows. Retrying covers the same period and more, so those rows are overwritten.
+        try (PreparedStatement insert = db.prepare("INSERT INTO `ShopStats`(`island_id`, `period_start`, `period_end`, `previews`, " +
+                "`purchases`, `sales`, `items_bought`, `items_sold`, `failures`, `revenue`, `payouts`) VALUES (?,?,?,?,?,?,?,?,?,?,?) " +
+                "ON DUPLICATE KEY UPDATE `period_end` = VALUES(`period_end`), `previews` = VALUES(`previews`), " +
+                "`purchases` = VALUES(`purchases`), `sales` = VALUES(`sales`), `items_bought` = VALUES(`items_bought`), " +
+                "`items_sold` = VALUES(`items_sold`), `failures` = VALUES(`failures`), `revenue` = VALUES(`revenue`), " +
+                "`payouts` = VALUES(`payouts`)")) {
+            for (Object[] row : rows) {
+                ShowcaseStats.Snapshot delta = (ShowcaseStats.Snapshot) row[1];
+                insert.setInt(1, (Integer) row[0]);
+                insert.setLong(2, LAST_FLUSH);
+                insert.setLong(3, now);
+                insert.setLong(4, delta.getPreviews());
+                insert.setLong(5, delta.getPurchases());
+                insert.setLong(6, delta.getSales());
+                insert.setLong(7, delta.getItemsBought());
+                insert.setLong(8, delta.getItemsSold());
+                insert.setLong(9, delta.getFailures());
+                insert.setDouble(10, delta.getRevenue());
+                insert.setDouble(11, delta.getPayouts());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+
+            // Only count the changes as flushed once they are written, so a failed flush is retried next time.
+            FLUSHED.putAll(current);
+            LAST_FLUSH = now;
+        } catch (SQLException ex) {
+            Main.log(Level.WARNING, "Unable to flush showcase stats: " + ex.getMessage());
+        }
+    }
+}
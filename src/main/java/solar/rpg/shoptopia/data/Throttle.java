@@ -0,0 +1,77 @@
+package solar.rpg.shoptopia.data;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-player token bucket, used to limit how quickly a player can interact with showcases.
+ * Each player's bucket is a single atomic timestamp: the time at which their bucket will
+ * be full again. Taking a token pushes that time back by one refill interval, and is
+ * refused if the bucket would be pushed back further than its capacity allows.
+ * Tokens are taken with a compare-and-set, so no locks are held.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @since 1.1
+ */
+public class Throttle {
+
+    /* Time at which each player's bucket is full again, in System#nanoTime() units. */
+    private final ConcurrentHashMap<UUID, AtomicLong> BUCKETS;
+
+    /* Nanoseconds it takes to refill one token. 0 if unlimited. */
+    private volatile long INTERVAL;
+    /* How far ahead of now a bucket may be pushed back, which is one token less than its capacity. */
+    private volatile long TOLERANCE;
+
+    Throttle() {
+        BUCKETS = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Sets the rate and capacity of every bucket.
+     *
+     * @param rate  Tokens refilled per second. 0 or less disables the throttle.
+     * @param burst Maximum amount of tokens a bucket can hold.
+     */
+    void configure(double rate, int burst) {
+        if (rate <= 0) {
+            INTERVAL = 0;
+            return;
+        }
+        long interval = Math.max(1, (long) (1_000_000_000L / rate));
+        TOLERANCE = interval * (Math.max(1, burst) - 1);
+        INTERVAL = interval;
+    }
+
+    /**
+     * Takes a token from a player's bucket, if one is available.
+     *
+     * @param player The player's UUID.
+     * @return False if the player has run out of tokens.
+     */
+    public boolean tryAcquire(UUID player) {
+        long interval = INTERVAL;
+        if (interval == 0) return true;
+        long tolerance = TOLERANCE;
+        long now = System.nanoTime();
+        AtomicLong full = BUCKETS.computeIfAbsent(player, id -> new AtomicLong(now));
+        while (true) {
+            long current = full.get();
+            // A bucket which has been full for a while starts from now.
+            long start = current - now < 0 ? now : current;
+            if (start - now > tolerance) return false;
+            if (full.compareAndSet(current, start + interval)) return true;
+        }
+    }
+
+    /**
+     * Forgets a player's bucket, such as when they leave.
+     *
+     * @param player The player's UUID.
+     */
+    public void forget(UUID player) {
+        BUCKETS.remove(player);
+    }
+}
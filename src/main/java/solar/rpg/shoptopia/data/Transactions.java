@@ -0,0 +1,191 @@
+package solar.rpg.shoptopia.data;
+
+import net.milkbowl.vault.economy.Economy;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.plugin.IllegalPluginAccessException;
+import solar.rpg.shoptopia.Main;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Transactions is responsible for moving money for showcase purchases and sales.
+ * The economy provider may be backed by a database, so Vault is never called on the
+ * main thread. All Vault calls run in order on a single economy thread, which means
+ * a balance is always checked and withdrawn before the next transaction looks at it.
+ * Items are moved on the main thread once the money has moved, and the money is
+ * moved back if that fails.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @since 1.1
+ */
+public class Transactions {
+
+    /* Reference to JavaPlugin. */
+    private final Main PLUGIN;
+
+    /* Single thread which makes every Vault call. */
+    private final ExecutorService EXECUTOR;
+
+    /* Main thread callbacks which have been scheduled but have not run yet. */
+    private final Set<Runnable> UNDELIVERED;
+
+    Transactions(Main PLUGIN) {
+        this.PLUGIN = PLUGIN;
+        EXECUTOR = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "Shoptopia-Economy");
+            thread.setDaemon(true);
+            return thread;
+        });
+        UNDELIVERED = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Moves money from a buyer to a payee, then delivers the goods on the main thread.
+     * If the goods cannot be delivered, the payment is reversed.
+     *
+     * @param buyer     The player paying.
+     * @param payee     The player being paid, or null if the money goes nowhere (admin shops).
+     * @param price     The amount of money.
+     * @param onPaid    Runs on the economy thread once the money has moved, before the goods are delivered.
+     * @param deliver   Delivers the goods on the main thread. Returns false, or throws, if they could not be delivered.
+     * @param onFailure Runs on the main thread if nobody was charged, with the reason why.
+     */
+    public void purchase(OfflinePlayer buyer, OfflinePlayer payee, double price, Runnable onPaid, BooleanSupplier deliver, Consumer<Failure> onFailure) {
+        async(() -> {
+            Economy econ = PLUGIN.getHandler().getEconomy();
+
+            // Balances are only touched by this thread, so the check cannot go stale before the withdrawal.
+            if (!econ.has(buyer, price)) {
+                sync(() -> onFailure.accept(Failure.INSUFFICIENT_FUNDS));
+                return;
+            }
+            if (!econ.withdrawPlayer(buyer, price).transactionSuccess()) {
+                sync(() -> onFailure.accept(Failure.ECONOMY_ERROR));
+                return;
+            }
+            if (payee != null && !econ.depositPlayer(payee, price).transactionSuccess()) {
+                refund(buyer, null, price);
+                sync(() -> onFailure.accept(Failure.ECONOMY_ERROR));
+                return;
+            }
+
+            // Money has moved, hand over to the main thread to move the items, whatever onPaid does.
+            try {
+                onPaid.run();
+            } catch (RuntimeException ex) {
+                Main.log(Level.SEVERE, String.format("Unable to record a payment by %s: %s", buyer.getName(), ex));
+            }
+            sync(() -> {
+                boolean delivered;
+                try {
+                    delivered = deliver.getAsBoolean();
+                } catch (RuntimeException ex) {
+                    Main.log(Level.SEVERE, String.format("Unable to deliver a purchase to %s, refunding: %s", buyer.getName(), ex));
+                    delivered = false;
+                }
+                if (!delivered)
+                    async(() -> refund(buyer, payee, price));
+            });
+        });
+    }
+
+    /**
+     * Pays a player for goods which were already taken on the main thread.
+     *
+     * @param payee     The player being paid.
+     * @param price     The amount of money.
+     * @param onSuccess Runs on the main thread once the player was paid.
+     * @param onFailure Runs on the main thread if the player could not be paid. Should give the goods back.
+     */
+    public void payout(OfflinePlayer payee, double price, Runnable onSuccess, Runnable onFailure) {
+        async(() -> {
+            if (PLUGIN.getHandler().getEconomy().depositPlayer(payee, price).transactionSuccess())
+                sync(onSuccess);
+            else
+                sync(onFailure);
+        });
+    }
+
+    /**
+     * Reverses a payment. Must be called on the economy thread.
+     *
+     * @param buyer The player who paid.
+     * @param payee The player who was paid, or null.
+     * @param price The amount of money.
+     */
+    private void refund(OfflinePlayer buyer, OfflinePlayer payee, double price) {
+        Economy econ = PLUGIN.getHandler().getEconomy();
+        if (payee != null && !econ.withdrawPlayer(payee, price).transactionSuccess())
+            Main.log(Level.WARNING, String.format("Unable to take back %s from %s during a refund!", price, payee.getName()));
+        if (!econ.depositPlayer(buyer, price).transactionSuccess())
+            Main.log(Level.SEVERE, String.format("Unable to refund %s to %s!", price, buyer.getName()));
+    }
+
+    /**
+     * Queues a task on the economy thread. Runs it right away if the thread has shut down.
+     *
+     * @param task The task.
+     */
+    private void async(Runnable task) {
+        try {
+            EXECUTOR.execute(task);
+        } catch (RejectedExecutionException ex) {
+            task.run();
+        }
+    }
+
+    /**
+     * Schedules a task on the main thread. The task is remembered until it has run,
+     * so that it can still be completed if the plugin is disabled in the meantime.
+     *
+     * @param task The task.
+     */
+    private void sync(Runnable task) {
+        UNDELIVERED.add(task);
+        try {
+            Bukkit.getScheduler().runTask(PLUGIN, () -> {
+                if (UNDELIVERED.remove(task))
+                    task.run();
+            });
+        } catch (IllegalPluginAccessException ex) {
+            // The plugin is being disabled, shutdown() will run the task instead.
+        }
+    }
+
+    /**
+     * Waits for queued transactions to finish, then completes any main thread
+     * callbacks the scheduler will no longer run. Must be called on the main thread.
+     */
+    public void shutdown() {
+        EXECUTOR.shutdown();
+        try {
+            if (!EXECUTOR.awaitTermination(10, TimeUnit.SECONDS))
+                Main.log(Level.SEVERE, "Timed out waiting for economy transactions to finish!");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (Runnable task : UNDELIVERED)
+            if (UNDELIVERED.remove(task))
+                task.run();
+    }
+
+    /**
+     * Reasons why nobody was charged for a purchase.
+     */
+    public enum Failure {
+        /* The buyer does not have enough money. */
+        INSUFFICIENT_FUNDS,
+        /* The economy provider refused or failed the transaction. */
+        ECONOMY_ERROR
+    }
+}
@@ -0,0 +1,68 @@
+package solar.rpg.shoptopia.player;
+
+import org.bukkit.Chunk;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import solar.rpg.shoptopia.Main;
+import solar.rpg.shoptopia.data.Showcase;
+import solar.rpg.skyblock.island.Island;
+import solar.rpg.skyblock.stored.Settings;
+
+/**
+ * Follows the lifecycle of chunks that contain showcases.
+ * A showcase's item drop is spawned once when its chunk loads, and released
+ * when its chunk unloads. Showcases in unloaded chunks therefore cost nothing.
+ * Loading a chunk of an island also loads that island's player showcases.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see Showcase#respawn()
+ * @see Showcase#despawn()
+ * @since 1.1
+ */
+public class ChunkListener implements Listener {
+
+    /* Reference to JavaPlugin. */
+    private final Main PLUGIN;
+
+    public ChunkListener(Main PLUGIN) {
+        this.PLUGIN = PLUGIN;
+        PLUGIN.getServer().getPluginManager().registerEvents(this, PLUGIN);
+    }
+
+    /**
+     * @param chunk A chunk.
+     * @return Showcases located in the chunk, or null if there are none.
+     */
+    private Showcase[] getShowcases(Chunk chunk) {
+        return PLUGIN.getHandler().getChunkIndex().getShowcases(chunk.getWorld(), chunk.getX(), chunk.getZ());
+    }
+
+    @EventHandler
+    public void onChunkLoad(ChunkLoadEvent event) {
+        // Load the player showcases of the island this chunk belongs to, if they are not loaded already.
+        if (event.getWorld().getName().equals(Settings.ADMIN_WORLD_ID)) {
+            Island island = solar.rpg.skyblock.Main.instance.main().islands().getIslandAt(event.getChunk().getBlock(0, 0, 0).getLocation());
+            if (island != null)
+                PLUGIN.getHandler().loadIsland(island.getID());
+        }
+
+        // Put the item drops of any showcases in this chunk on display, unless the proximity sweeper does so.
+        if (PLUGIN.getHandler().isLazyDisplay()) return;
+        Showcase[] showcases = getShowcases(event.getChunk());
+        if (showcases == null) return;
+        for (Showcase sc : showcases)
+            sc.respawn();
+    }
+
+    @EventHandler
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        // Release the item drops of any showcases in this chunk.
+        Showcase[] showcases = getShowcases(event.getChunk());
+        if (showcases == null) return;
+        for (Showcase sc : showcases)
+            sc.despawn();
+    }
+}
@@ -1,6 +1,7 @@
 package solar.rpg.shoptopia.player;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
@@ -10,12 +11,21 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import solar.rpg.shoptopia.Main;
+import solar.rpg.shoptopia.data.BlockKey;
+import solar.rpg.shoptopia.data.ItemCodec;
+import solar.rpg.shoptopia.data.Message;
+import solar.rpg.shoptopia.data.Messages;
 import solar.rpg.shoptopia.data.PurchaseData;
 import solar.rpg.shoptopia.data.Showcase;
+import solar.rpg.shoptopia.data.ShowcaseStats;
 import solar.rpg.skyblock.island.Island;
 import solar.rpg.skyblock.stored.Settings;
 
-import static org.bukkit.ChatColor.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Commands is responsible for interpreting player commands.
@@ -27,24 +37,8 @@ import static org.bukkit.ChatColor.*;
 //TODO: Add /shop update <amount> <price>
 public class Commands {
 
-    /* Predefined messages. */
-    //TODO: Extract these to an external file.
-    private final String ARGUMENT_ERROR = RED + "Invalid usage. Please use /shop <info/reload/create>.";
-    private final String ARGUMENT_CREATE_ERROR = RED + "Invalid usage. Please use /shop create <amount> <price>";
-    private final String ARGUMENT_UPDATE_ERROR = RED + "Invalid usage. Please use /shop update <amount> <price>";
-    private final String ARGUMENT_INFO = GOLD + "Shoptopia plugin by lavuh. https://github.com/skytopia/Shoptopia/";
-    private final String SHOP_INVALID_LOCATION = RED + "You are not allowed to do that here!";
-    private final String SHOP_TOO_MANY = RED + "You cannot create more than 12 shops at once!";
-    private final String SHOP_NO_ITEM = RED + "There are no items in your designated chest!";
-    private final String SHOP_OBSTRUCTED = RED + "The chest is being obstructed. Please remove any blocks above it!";
-    private final String SHOP_REMOVED = RED + "You have successfully removed this player shop!";
-    private final String SHOP_CREATED = GOLD + "You have successfully created a player shop!";
-    private final String SHOP_INVALID_BLOCK = RED + "You cannot create a shop here!";
-    private final String SHOP_NO_SHOP = RED + "There is currently no shop set up here!";
-    private final String CHEST_NOT_FOUND = RED + "You are not looking at a chest block!";
-    private final String RELOAD_SUCCESS = GREEN + "Showcases successfully reloaded.";
-    private final String RELOAD_FAILURE = RED + "Player showcases were not able to be loaded. Some may be missing...";
-    private final String NO_PERMISSION = RED + "I admire your curiosity, but this command isn't for you.";
+    /* Amount of showcases listed by /shop stats top. */
+    private static final int TOP_SHOWCASES = 10;
 
     /* Reference to JavaPlugin. */
     private final Main PLUGIN;
@@ -53,6 +47,55 @@ public class Commands {
         this.PLUGIN = PLUGIN;
     }
 
+    /**
+     * @return Player-facing messages.
+     */
+    private Messages messages() {
+        return PLUGIN.getHandler().getMessages();
+    }
+
+    /**
+     * Sends a snapshot of sales counters.
+     *
+     * @param sender Who to send the counters to.
+     * @param stats  The counters.
+     */
+    private void sendStats(CommandSender sender, ShowcaseStats.Snapshot stats) {
+        sender.sendMessage(messages().render(Message.STATS_PREVIEWS, stats.getPreviews()));
+        sender.sendMessage(messages().render(Message.STATS_PURCHASES, stats.getPurchases(), stats.getRevenue()));
+        sender.sendMessage(messages().render(Message.STATS_SALES, stats.getSales(), stats.getPayouts()));
+        sender.sendMessage(messages().render(Message.STATS_FAILURES, stats.getFailures()));
+    }
+
+    /**
+     * Sends the showcases with the most money going through them, both bought and sold.
+     *
+     * @param sender Who to send the showcases to.
+     */
+    private void sendTopShowcases(CommandSender sender) {
+        List<Showcase> all = new ArrayList<>();
+        Collections.addAll(all, PLUGIN.getHandler().getShowcases());
+        Collections.addAll(all, PLUGIN.getHandler().getPlayerShowcases());
+
+        // Take every snapshot once, then sort by turnover. Sorting is stable, so ties keep the showcases' order.
+        Map<Showcase, Double> turnover = new HashMap<>();
+        for (Showcase sc : all) {
+            ShowcaseStats.Snapshot stats = sc.getStats();
+            turnover.put(sc, stats.getRevenue() + stats.getPayouts());
+        }
+        all.sort((first, second) -> Double.compare(turnover.get(second), turnover.get(first)));
+
+        int shown = Math.min(TOP_SHOWCASES, all.size());
+        sender.sendMessage(messages().render(Message.STATS_TOP, shown));
+        for (int i = 0; i < shown; i++) {
+            Showcase sc = all.get(i);
+            Location position = sc.getPosition();
+            String item = sc.getIconType() + " at " + position.getBlockX() + "," + position.getBlockY() + "," + position.getBlockZ()
+                    + (sc.isAdminShop() ? "" : " (island " + sc.getOwnerID() + ")");
+            sender.sendMessage(messages().render(Message.STATS_TOP_ENTRY, i + 1, turnover.get(sc), item));
+        }
+    }
+
     /**
      * There is no need for a framework, so just use
      * a simple CommandExecutor method to handle /shop.
@@ -71,22 +114,26 @@ public class Commands {
                 switch (args[0].toLowerCase()) {
                     case "info":
                         // Show basic plugin information.
-                        sender.sendMessage(ARGUMENT_INFO);
+                        sender.sendMessage(messages().get(Message.ARGUMENT_INFO));
                         break;
                     case "reload":
                         // Attempt to reload existing showcases again.
-                        if (sender.hasPermission("skytopia.staff"))
-                            if (PLUGIN.getHandler().reload())
-                                sender.sendMessage(RELOAD_SUCCESS);
-                            else sender.sendMessage(RELOAD_FAILURE);
-                        else
-                            sender.sendMessage(NO_PERMISSION);
+                        if (sender.hasPermission("skytopia.staff")) {
+                            // Showcases are loaded in the background, so report back once they are built.
+                            long start = System.currentTimeMillis();
+                            PLUGIN.getHandler().reload().thenAccept(success -> {
+                                if (success)
+                                    sender.sendMessage(messages().render(Message.RELOAD_SUCCESS, System.currentTimeMillis() - start));
+                                else sender.sendMessage(messages().get(Message.RELOAD_FAILURE));
+                            });
+                        } else
+                            sender.sendMessage(messages().get(Message.NO_PERMISSION));
                         break;
                     case "create":
                         try {
                             // Create requires 3 arguments.
                             if (args.length != 3) {
-                                sender.sendMessage(ARGUMENT_CREATE_ERROR);
+                                sender.sendMessage(messages().get(Message.ARGUMENT_CREATE_ERROR));
                                 return true;
                             }
 
@@ -96,18 +143,18 @@ public class Commands {
 
                             // Player showcases can only be created in the islands world.
                             if (!((Player) sender).getWorld().getName().equals(Settings.ADMIN_WORLD_ID)) {
-                                sender.sendMessage(SHOP_INVALID_LOCATION);
+                                sender.sendMessage(messages().get(Message.SHOP_INVALID_LOCATION));
                                 return true;
                             }
 
                             // Check if the block the player is looking at is an eligible chest.
                             Block targetBlock = ((Player) sender).getTargetBlock(null, 5);
                             if (targetBlock.getType() != Material.CHEST) {
-                                sender.sendMessage(CHEST_NOT_FOUND);
+                                sender.sendMessage(messages().get(Message.CHEST_NOT_FOUND));
                                 return true;
                             } else if (((Chest) targetBlock.getState()).getBlockInventory().getSize() == 54) {
                                 //Only allow single chests.
-                                sender.sendMessage(SHOP_INVALID_BLOCK);
+                                sender.sendMessage(messages().get(Message.SHOP_INVALID_BLOCK));
                                 return true;
                             }
 
@@ -115,25 +162,32 @@ public class Commands {
                             Chest chest = (Chest) targetBlock.getState();
                             Island found = solar.rpg.skyblock.Main.instance.main().islands().getIslandAt(targetBlock.getLocation());
                             if (!found.members().isMember(((Player) sender).getUniqueId())) {
-                                sender.sendMessage(SHOP_INVALID_LOCATION);
+                                sender.sendMessage(messages().get(Message.SHOP_INVALID_LOCATION));
+                                return true;
+                            }
+
+                            // The island's showcases must be loaded to know how many there are.
+                            if (!PLUGIN.getHandler().isIslandLoaded(found.getID())) {
+                                PLUGIN.getHandler().loadIsland(found.getID());
+                                sender.sendMessage(messages().get(Message.SHOP_LOADING));
                                 return true;
                             }
 
                             // Check if the maximum number of showcases will not be exceeded.
-                            if (PLUGIN.getHandler().getTotalShowcases(found.getID()) >= 12) {
-                                sender.sendMessage(SHOP_TOO_MANY);
+                            if (PLUGIN.getHandler().getTotalShowcases(found.getID()) >= PLUGIN.getHandler().getMaxShowcases()) {
+                                sender.sendMessage(messages().render(Message.SHOP_TOO_MANY, PLUGIN.getHandler().getMaxShowcases()));
                                 return true;
                             }
 
                             // Check if there is not an existing showcase on this block already.
-                            if (PLUGIN.getHandler().isShowcaseAt(targetBlock.getLocation(), PLUGIN.getHandler().getPlayerShowcasesMap().get(found.getID())) != null) {
-                                sender.sendMessage(SHOP_INVALID_BLOCK);
+                            if (PLUGIN.getHandler().getPlayerShowcaseAt(found.getID(), targetBlock.getLocation().add(0, 1, 0)) != null) {
+                                sender.sendMessage(messages().get(Message.SHOP_INVALID_BLOCK));
                                 return true;
                             }
 
                             // Check if there is an immediate free space above the chest.
                             if (targetBlock.getRelative(BlockFace.UP).getType() != Material.AIR) {
-                                sender.sendMessage(SHOP_OBSTRUCTED);
+                                sender.sendMessage(messages().get(Message.SHOP_OBSTRUCTED));
                                 return true;
                             }
 
@@ -141,7 +195,7 @@ public class Commands {
                             // Create a singular stack clone of the stock if there is.
                             ItemStack toSell = PLUGIN.getHandler().findNextItem(chest.getBlockInventory());
                             if (toSell == null) {
-                                sender.sendMessage(SHOP_NO_ITEM);
+                                sender.sendMessage(messages().get(Message.SHOP_NO_ITEM));
                                 return true;
                             }
                             toSell = toSell.clone();
@@ -158,62 +212,136 @@ public class Commands {
                             // Create the Showcase object and place it in the player showcases map.
                             Showcase created = new Showcase(PLUGIN, chest.getX(), chest.getY() + 1, chest.getZ(), toSell, buyData, null, false, found.getID(), chest.getWorld());
                             PLUGIN.getHandler().addPlayerShowcase(found.getID(), created);
-                            sender.sendMessage(SHOP_CREATED);
+                            PLUGIN.getHandler().getIslandCache().invalidate(found.getID());
+                            sender.sendMessage(messages().get(Message.SHOP_CREATED));
 
                             // Reflect the creation of this new player shop in the database table.
-                            solar.rpg.skyblock.Main.instance.main().sql().queue("INSERT INTO `Shops`(`owner_id`, `amount`, `price`, `item`, `xyz`) VALUES (?,?,?,?,?)",
-                                    found.getID(), amount, price, showcaseProduct.getType(), chest.getX() + "," + (chest.getY() + 1) + "," + chest.getZ());
+                            PLUGIN.getHandler().getStore().create(created.getPosition(), found.getID(), amount, price, ItemCodec.encode(showcaseProduct));
                             break;
                         } catch (NumberFormatException ex) {
-                            sender.sendMessage(ARGUMENT_CREATE_ERROR);
+                            sender.sendMessage(messages().get(Message.ARGUMENT_CREATE_ERROR));
                         }
                     case "remove":
                         // Check if the player is in the island world, where player shops are located.
                         if (!((Player) sender).getWorld().getName().equals(Settings.ADMIN_WORLD_ID)) {
-                            sender.sendMessage(SHOP_INVALID_LOCATION);
+                            sender.sendMessage(messages().get(Message.SHOP_INVALID_LOCATION));
                             return true;
                         }
 
                         // Check that the player is looking at a chest block.
                         Block targetBlock = ((Player) sender).getTargetBlock(null, 5);
                         if (targetBlock.getType() != Material.CHEST) {
-                            sender.sendMessage(CHEST_NOT_FOUND);
+                            sender.sendMessage(messages().get(Message.CHEST_NOT_FOUND));
                             return true;
                         }
 
                         // Check if they are within their island boundaries.
                         Island found = solar.rpg.skyblock.Main.instance.main().islands().getIslandAt(targetBlock.getLocation());
                         if (!found.members().isMember(((Player) sender).getUniqueId())) {
-                            sender.sendMessage(SHOP_INVALID_LOCATION);
+                            sender.sendMessage(messages().get(Message.SHOP_INVALID_LOCATION));
+                            return true;
+                        }
+
+                        // The island's showcases must be loaded to find the showcase.
+                        if (!PLUGIN.getHandler().isIslandLoaded(found.getID())) {
+                            PLUGIN.getHandler().loadIsland(found.getID());
+                            sender.sendMessage(messages().get(Message.SHOP_LOADING));
                             return true;
                         }
 
                         // Get the showcase object of the showcase located at this chest block, if any.
-                        Showcase foundCase = PLUGIN.getHandler().isShowcaseAt(targetBlock.getLocation().clone().add(0, 1, 0),
-                                PLUGIN.getHandler().getPlayerShowcasesMap().get(found.getID()));
+                        Showcase foundCase = PLUGIN.getHandler().getPlayerShowcaseAt(found.getID(), targetBlock.getLocation().add(0, 1, 0));
 
                         // Check that there is indeed a showcase set up on this chest block.
                         if (foundCase == null) {
-                            sender.sendMessage(SHOP_NO_SHOP);
+                            sender.sendMessage(messages().get(Message.SHOP_NO_SHOP));
                             return true;
                         }
 
-                        // Remove it from the player shop listener's clickspace. Also remove it from the map.
-                        PLUGIN.getPlayerShopListener().removeClickspace(foundCase);
+                        // Remove it from the island's showcases, along with its sales counters.
+                        PLUGIN.getHandler().getStats().forget(foundCase);
                         PLUGIN.getHandler().removePlayerShowcase(found.getID(), foundCase);
+                        PLUGIN.getHandler().getIslandCache().invalidate(found.getID());
 
-                        // Destroy the showcase object and the item drop associated with it.
+                        // Destroying the showcase clears its position, so remember it for the database.
+                        Location removed = foundCase.getPosition();
+
+                        // Destroy the showcase object, its clickspace and the item drop associated with it.
                         foundCase.destroy();
                         targetBlock.getRelative(BlockFace.UP).setType(Material.AIR);
-                        sender.sendMessage(SHOP_REMOVED);
+                        sender.sendMessage(messages().get(Message.SHOP_REMOVED));
 
                         // Reflect the removal of this player shop in the database table.
-                        solar.rpg.skyblock.Main.instance.main().sql().queue(
-                                "DELETE FROM `Shops` WHERE (`owner_id`, `xyz`) = (?,?)",
-                                found.getID(), targetBlock.getX() + "," + (targetBlock.getY() + 1) + "," + targetBlock.getZ());
+                        PLUGIN.getHandler().getStore().remove(removed);
+                        break;
+                    case "buy":
+                    case "sell":
+                        // Bulk trades take the amount of lots to trade.
+                        boolean buying = args[0].equalsIgnoreCase("buy");
+                        if (!(sender instanceof Player) || args.length != 2) {
+                            sender.sendMessage(messages().get(buying ? Message.ARGUMENT_BUY_ERROR : Message.ARGUMENT_SELL_ERROR));
+                            return true;
+                        }
+                        int lots;
+                        try {
+                            // Selling everything is bounded by the player's inventory, so it is not capped.
+                            lots = !buying && args[1].equalsIgnoreCase("all") ? ShopListener.ALL_LOTS : Integer.parseInt(args[1]);
+                        } catch (NumberFormatException ex) {
+                            sender.sendMessage(messages().get(buying ? Message.ARGUMENT_BUY_ERROR : Message.ARGUMENT_SELL_ERROR));
+                            return true;
+                        }
+                        if (lots != ShopListener.ALL_LOTS && (lots < 1 || lots > PLUGIN.getHandler().getMaxLots())) {
+                            sender.sendMessage(messages().render(Message.TOO_MANY_LOTS, PLUGIN.getHandler().getMaxLots()));
+                            return true;
+                        }
+
+                        // Find the showcase the player is looking at, either the slab or the chest below it.
+                        Player trader = (Player) sender;
+                        ShopListener listener = PLUGIN.getShopListener();
+                        Showcase target = listener.getClickspace().get(BlockKey.of(trader.getTargetBlock(null, 5)));
+                        if (target == null) {
+                            sender.sendMessage(messages().get(Message.SHOWCASE_NOT_FOUND));
+                            return true;
+                        }
+                        if (listener.isOwnShowcase(target, trader)) {
+                            sender.sendMessage(messages().get(Message.SHOWCASE_OWN));
+                            return true;
+                        }
+
+                        // Bulk trades share the same throttle as trading by clicking.
+                        if (!PLUGIN.getHandler().getTransactionThrottle().tryAcquire(trader.getUniqueId())) {
+                            sender.sendMessage(messages().get(Message.TRADING_TOO_FAST));
+                            return true;
+                        }
+
+                        // Every lot is traded in a single transaction.
+                        if (buying)
+                            listener.tryBuy(target, trader, lots);
+                        else listener.trySell(target, trader, lots);
+                        break;
+                    case "stats":
+                        if (args.length == 1 || args[1].equalsIgnoreCase("top")) {
+                            // Stats of every showcase are for staff only.
+                            if (!sender.hasPermission("skytopia.staff")) {
+                                sender.sendMessage(messages().get(Message.NO_PERMISSION));
+                                return true;
+                            }
+                            if (args.length == 1) {
+                                sender.sendMessage(messages().get(Message.STATS_TOTAL));
+                                sendStats(sender, PLUGIN.getHandler().getStats().getTotal());
+                            } else sendTopShowcases(sender);
+                        } else if (args[1].equalsIgnoreCase("island") && sender instanceof Player) {
+                            Island own = solar.rpg.skyblock.Main.instance.main().islands().getIsland(((Player) sender).getUniqueId());
+                            if (own == null) {
+                                sender.sendMessage(messages().get(Message.STATS_NO_ISLAND));
+                                return true;
+                            }
+                            sender.sendMessage(messages().get(Message.STATS_ISLAND));
+                            sendStats(sender, PLUGIN.getHandler().getStats().getIsland(own.getID()));
+                        } else sender.sendMessage(messages().get(Message.ARGUMENT_STATS_ERROR));
                         break;
                     default:
-                        sender.sendMessage(ARGUMENT_ERROR);
+                        sender.sendMessage(messages().get(Message.ARGUMENT_ERROR));
                         break;
                 }
         }
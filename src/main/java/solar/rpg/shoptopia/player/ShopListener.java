@@ -1,156 +1,129 @@
 package solar.rpg.shoptopia.player;
 
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.Sound;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.Chest;
-import org.bukkit.entity.Item;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
 import org.bukkit.event.block.BlockBreakEvent;
-import org.bukkit.event.entity.ItemDespawnEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.inventory.EquipmentSlot;
+import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.inventory.PlayerInventory;
 import solar.rpg.shoptopia.Main;
+import solar.rpg.shoptopia.data.BlockKey;
+import solar.rpg.shoptopia.data.ChunkIndex;
+import solar.rpg.shoptopia.data.Clickspace;
+import solar.rpg.shoptopia.data.Journal;
+import solar.rpg.shoptopia.data.JournalRecord;
+import solar.rpg.shoptopia.data.Message;
+import solar.rpg.shoptopia.data.PurchaseData;
 import solar.rpg.shoptopia.data.Showcase;
+import solar.rpg.shoptopia.data.Transactions;
 import solar.rpg.skyblock.island.Island;
 import solar.rpg.skyblock.stored.Settings;
 import solar.rpg.skyblock.util.Title;
 
-import java.text.DecimalFormat;
 import java.util.*;
 
-import static org.bukkit.ChatColor.GOLD;
-import static org.bukkit.ChatColor.RED;
-
 /**
- * This abstract class is responsible for monitoring a single set of showcases.
- * A separate shop listener is created for each individual showcase type.
- * All showcase listeners share the same behaviour when they are interacted with
- * by the player, so the only abstracted part is the set of showcases to listen to.
+ * This class is the single dispatcher for showcase interactions.
+ * Admin and player showcases share one clickspace, and both behave the same
+ * when they are interacted with, apart from the checks specific to player shops.
+ * Every event is first checked against the chunk index's occupied chunk bitmap,
+ * so events far away from any showcase return after a single bit test.
  *
  * @author lavuh
  * @version 1.1
- * @see #getShowcases()
+ * @see ChunkIndex#isOccupied(World, int, int)
  * @since 1.0
  */
-public abstract class ShopListener implements Listener {
-
-    /* Predefined messages. */
-    //TODO: Extract these to an external file.
-    private final String SELL = GOLD + "Sell!";
-    private final String SOLD = GOLD + "Sold!";
-    private final String SELL_AMT_FOR = RED + "Sell x of this item for y ƒ!";
-    private final String SELL_SUCCESS = RED + "Sold x of this item for y ƒ!";
-    private final String NO_SELL = RED + "You cannot sell here.";
-    private final String NO_ADMIN_SELL = RED + "This item cannot be sold.";
-    private final String INSUFFICIENT_ITEMS = RED + "You do not have enough items to sell!";
-
-    private final String BUY = GOLD + "Buy!";
-    private final String BOUGHT = GOLD + "Bought!";
-    private final String BUY_AMT_FOR = RED + "Purchase x of this item for y ƒ!";
-    private final String BUY_SUCCESS = RED + "Purchased x of this item for y ƒ!";
-    private final String NO_BUY = RED + "This item cannot be purchased.";
-    private final String INSUFFICIENT_MONEY = RED + "You do not have enough money to purchase this!";
-    private final String INVENTORY_FULL = RED + "Some items were unable to fit into your inventory.\nWe have relocated these items to any empty storage space.";
-
-    private final String OUT_OF_STOCK = RED + "This player shop is out of stock!";
-    private final String SHOP_BROKEN = RED + "This shop is broken. Please try again later.";
-    private final String DONATOR_ONLY = RED + "This shop is for donators only!";
+public class ShopListener implements Listener {
+
+    /* How long a preview title stays on screen, in milliseconds. Fade in, stay and fade out ticks. */
+    private static final long PREVIEW_WINDOW = (20 + 100 + 20) * 50;
+
+    /* Amount of lots which sells every whole lot a player has. */
+    static final int ALL_LOTS = -1;
 
     /* Reference to JavaPlugin. */
     private final Main PLUGIN;
-    /* Decimal formatter for buy/sell prices. */
-    private final DecimalFormat FORMAT;
     /* Clickspace for showcases. See #getClickspace(). */
-    private final HashMap<Location, Showcase> CLICKSPACE;
-    /* Set of item drops that are exempt from despawning and pickup by all players. */
-    private final Set<Item> EXEMPT;
+    private final Clickspace CLICKSPACE;
+    /* Last preview shown to each player, so repeated previews can be skipped. */
+    private final HashMap<UUID, Preview> PREVIEWS;
 
-    protected ShopListener(Main PLUGIN) {
+    public ShopListener(Main PLUGIN) {
         this.PLUGIN = PLUGIN;
         PLUGIN.getServer().getPluginManager().registerEvents(this, PLUGIN);
-        EXEMPT = new HashSet<>();
-        FORMAT = new DecimalFormat("#.##");
-        CLICKSPACE = new HashMap<>();
-        antiTamperTask();
+        CLICKSPACE = new Clickspace();
+        PREVIEWS = new HashMap<>();
     }
 
     /**
-     * Different abstractions of this ShopListener will look after different
-     * types of showcases. As of version 1.1, these are just admin showcases
-     * and player showcases.
+     * Clickspace is a set of block locations where a click
+     * from a player can activate a showcase action.
      *
-     * @return Set of relevant showcases for this individual listener.
+     * @return Clickspace for all showcases.
      */
-    protected abstract Showcase[] getShowcases();
+    public Clickspace getClickspace() {
+        return CLICKSPACE;
+    }
 
     /**
-     * Continually listens to showcase objects to prevent tampering.
-     * If the showcase object has moved, it will be respawned.
+     * Removes a showcase from the clickspace map.
+     *
+     * @param toRemove The showcase to remove.
      */
-    private void antiTamperTask() {
-        //If items are tampered with, teleport them back.
-        new BukkitRunnable() {
-            public void run() {
-                for (Item item : Bukkit.getWorld("world").getEntitiesByClass(Item.class)) {
-                    for (Showcase sc : getShowcases())
-                        if (Showcase.matchXZ(sc.getPosition(), item.getLocation()))
-                            // Remove items of same type on top of showcase to prevent tampering.
-                            if (!sc.getShowcaseDrop().equals(item) && sc.getShowcaseDrop().getItemStack().getType().equals(item.getItemStack().getType())) {
-                                item.remove();
-                                sc.respawn();
-                            }
-                }
-
-                // Check that the Showcase item hasn't despawned.
-                for (Showcase sc : getShowcases())
-                    if (!sc.getShowcaseDrop().isValid() && sc.getShowcaseDrop().isDead())
-                            sc.respawn();
-            }
-        }.runTaskTimer(PLUGIN, 0L, 100L);
+    public void removeClickspace(Showcase toRemove) {
+        // Only remove keys that still belong to this showcase.
+        for (long key : toRemove.getClickspaceKeys())
+            if (CLICKSPACE.get(key) == toRemove)
+                CLICKSPACE.remove(key);
     }
 
     /**
-     * Clickspace is a set of block locations where a click
-     * from a player can activate a showcase action.
-     *
-     * @return Clickspace for this listener.
+     * @param message A message without placeholders.
+     * @return The message.
      */
-    public HashMap<Location, Showcase> getClickspace() {
-        return CLICKSPACE;
+    private String message(Message message) {
+        return PLUGIN.getHandler().getMessages().get(message);
     }
 
     /**
-     * Removes a showcase from the clickspace map.
-     *
-     * @param toRemove The showcase to remove.
+     * @param block A block.
+     * @return False if there is definitely no showcase in the block's chunk.
      */
-    void removeClickspace(Showcase toRemove) {
-        Set<Location> set = new HashSet<>();
-        // Go through entry set and identify keys that belong to the showcase.
-        for (Map.Entry<Location, Showcase> entry : CLICKSPACE.entrySet())
-            if (entry.getValue().getPosition().equals(toRemove.getPosition()))
-                set.add(entry.getKey());
-
-        // Remove these keys from the clickspace.
-        for (Location remove : set)
-            CLICKSPACE.remove(remove);
-        set.clear();
+    private boolean isOccupied(Block block) {
+        return PLUGIN.getHandler().getChunkIndex().isOccupied(block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
     }
 
     /**
-     * @return Set of item drops (from showcases) that shouldn't be despawned or picked up.
+     * Checks if a preview would only repeat the title a player is already looking at.
+     * Otherwise, remembers the preview as the one on screen.
+     *
+     * @param sc     The showcase.
+     * @param target The player to show the preview.
+     * @param buy    True for a buying preview, false for a selling preview.
+     * @return True if the same preview is still on screen.
      */
-    public Set<Item> getExempt() {
-        return EXEMPT;
+    private boolean isShowingPreview(Showcase sc, Player target, boolean buy) {
+        long now = System.currentTimeMillis();
+        Preview last = PREVIEWS.get(target.getUniqueId());
+        if (last != null && last.SHOWCASE == sc && last.BUY == buy && now - last.SHOWN < PREVIEW_WINDOW)
+            return true;
+        PREVIEWS.put(target.getUniqueId(), new Preview(sc, buy, now));
+        return false;
     }
 
     /**
@@ -160,12 +133,17 @@ public abstract class ShopListener implements Listener {
      * @param target The player to show the preview.
      */
     private void previewBuy(Showcase sc, Player target) {
-        if (sc.canBuy()) {
+        sc.recordPreview();
+        if (sc.canBuy() && !sc.isAdminShop() && sc.getStock() < sc.getBuyData().getAmount()) {
+            // Player shops which are out of stock can be told apart without opening the chest.
+            target.playSound(target.getLocation(), Sound.ENTITY_CAT_HISS, 2F, 2F);
+            Title.showTitle(target, "", message(Message.OUT_OF_STOCK), 20, 100, 20);
+        } else if (sc.canBuy()) {
             target.playSound(target.getLocation(), Sound.ENTITY_CAT_HURT, 2F, 2F);
-            Title.showTitle(target, BUY, BUY_AMT_FOR.replace("x", sc.getBuyData().getAmount() + "").replace("y", FORMAT.format(sc.getBuyData().getPrice())), 20, 100, 20);
+            Title.showTitle(target, message(Message.BUY), sc.getBuyPreview(), 20, 100, 20);
         } else {
             target.playSound(target.getLocation(), Sound.ENTITY_CAT_HISS, 2F, 2F);
-            Title.showTitle(target, "", NO_BUY, 20, 100, 20);
+            Title.showTitle(target, "", message(Message.NO_BUY), 20, 100, 20);
         }
     }
 
@@ -177,35 +155,59 @@ public abstract class ShopListener implements Listener {
      * @param target The player who clicked.
      */
     private void previewSell(Showcase sc, Player target) {
+        sc.recordPreview();
         if (sc.canSell()) {
             target.playSound(target.getLocation(), Sound.ENTITY_CAT_HURT, 2F, 2F);
-            Title.showTitle(target, SELL, SELL_AMT_FOR.replace("x", sc.getSellData().getAmount() + "").replace("y", FORMAT.format(sc.getSellData().getPrice())), 20, 100, 20);
+            Title.showTitle(target, message(Message.SELL), sc.getSellPreview(), 20, 100, 20);
         } else {
             target.playSound(target.getLocation(), Sound.ENTITY_CAT_HISS, 2F, 2F);
-            Title.showTitle(target, "", sc.isAdminShop() ? NO_ADMIN_SELL : NO_SELL, 20, 100, 20);
+            Title.showTitle(target, "", message(sc.isAdminShop() ? Message.NO_ADMIN_SELL : Message.NO_SELL), 20, 100, 20);
         }
     }
 
     /**
-     * Attempts to buy the showcase contents for a player.
+     * Checks if a player is a member of the island a player showcase is on.
+     * Members cannot trade with their own island's showcases.
+     *
+     * @param sc     A showcase.
+     * @param player A player.
+     * @return True if the showcase belongs to the player's island.
+     */
+    boolean isOwnShowcase(Showcase sc, Player player) {
+        if (sc.isAdminShop()) return false;
+        return PLUGIN.getHandler().getIslandCache().isMember(sc, player.getUniqueId());
+    }
+
+    /**
+     * Attempts to buy one or more lots of the showcase contents for a player.
+     * Stock and balance are checked once for every lot, and the payment is a single transaction.
+     * Stock is reserved straight away, while the payment goes through the
+     * transaction pipeline. Items are only moved once the payment has been made.
      *
      * @param sc     The target showcase to buy from.
      * @param target The player who is purchasing.
+     * @param lots   Amount of lots to purchase.
+     * @see Transactions
      */
-    private void tryBuy(Showcase sc, Player target) {
+    void tryBuy(Showcase sc, Player target, int lots) {
+        // Any title shown from here on replaces the preview.
+        PREVIEWS.remove(target.getUniqueId());
+
         // Get the (supposed) chest block for player shop purposes.
         Block block = sc.getPosition().getBlock().getRelative(BlockFace.DOWN);
 
         if (!sc.isAdminShop()) {
             // If it is a player shop, make sure the storage chest exists below the showcase block.
             if (block.getType() != Material.CHEST) {
-                target.sendMessage(SHOP_BROKEN);
+                sc.recordFailure();
+                target.sendMessage(message(Message.SHOP_BROKEN));
                 return;
             }
 
-            // Check that the player shop is in stock too.
-            if (!((Chest) block.getState()).getBlockInventory().containsAtLeast(sc.getBuyData().getStock(), sc.getBuyData().getAmount())) {
-                target.sendMessage(OUT_OF_STOCK);
+            // Check that the player shop is in stock too. The stock is cached until the chest changes.
+            if (sc.getStock() < sc.getBuyData().getAmount() * lots) {
+                sc.recordFailure();
+                target.sendMessage(message(Message.OUT_OF_STOCK));
                 return;
             }
         }
@@ -213,94 +215,239 @@ public abstract class ShopListener implements Listener {
         // Check if the showcase is donator only.
         if (sc.isDonatorOnly())
             if (!target.hasPermission("skytopia.donator")) {
-                target.sendMessage(DONATOR_ONLY);
+                target.sendMessage(message(Message.DONATOR_ONLY));
                 return;
             }
 
-        if (sc.canBuy()) {
-            // Check that the player has sufficient money to purchase from this showcase.
-            if (PLUGIN.getHandler().getEconomy().has(target, sc.getBuyData().getPrice())) {
-                // Check if the player's inventory was too full to put the purchased items in.
-                Collection<ItemStack> leftover = target.getInventory().addItem(sc.getBuyData().getStock()).values();
-                Island found = solar.rpg.skyblock.Main.instance.main().islands().getIsland(target.getUniqueId());
-                if (leftover.size() > 0) {
-                    // Move any leftover items to their Island storage.
-                    for (ItemStack item : leftover)
-                        found.inv().getStorage().addItem(item);
-
-                    // Notify the island members that a purchased item was put in storage.
-                    found.actions().messageAll(INVENTORY_FULL);
-                }
+        if (!sc.canBuy()) {
+            // You cannot buy from this showcase.
+            target.playSound(target.getLocation(), Sound.ENTITY_CAT_HISS, 2F, 2F);
+            Title.showTitle(target, "", message(Message.NO_BUY), 20, 100, 20);
+            return;
+        }
 
-                // Remove stock if it is a player shop. Credit the island owner's balance.
-                if (!sc.isAdminShop()) {
-                    ((Chest) block.getState()).getBlockInventory().removeItem(sc.getBuyData().getStock());
-                    PLUGIN.getHandler().getEconomy().depositPlayer(Bukkit.getOfflinePlayer(found.members().getOwner()), sc.getBuyData().getPrice());
-                }
+        PurchaseData buyData = sc.getBuyData();
+        int amount = buyData.getAmount() * lots;
+        OfflinePlayer payee = null;
+        if (!sc.isAdminShop()) {
+            // Player shops pay the owner of the island they are on. Hold the stock until the payment is done.
+            payee = PLUGIN.getHandler().getIslandCache().getOwner(sc);
+            if (payee == null) {
+                sc.recordFailure();
+                target.sendMessage(message(Message.SHOP_BROKEN));
+                return;
+            }
+            sc.reserveStock(amount);
+        }
 
-                // Withdraw the money, notify the player.
-                PLUGIN.getHandler().getEconomy().withdrawPlayer(target, sc.getBuyData().getPrice());
-                target.playSound(target.getLocation(), Sound.ENTITY_EVOKER_FANGS_ATTACK, 0.7F, 0.5F);
-                Title.showTitle(target, BOUGHT, BUY_SUCCESS.replace("x", sc.getBuyData().getAmount() + "").replace("y", FORMAT.format(sc.getBuyData().getPrice())), 20, 100, 20);
-            } else {
-                target.playSound(target.getLocation(), Sound.ENTITY_PLAYER_LEVELUP, 0.5F, 0.5F);
-                target.sendMessage(INSUFFICIENT_MONEY);
+        // The showcase may be destroyed before the purchase completes, so remember where it was for the journal.
+        Location position = sc.getPosition();
+        int islandID = sc.getOwnerID();
+        Journal journal = PLUGIN.getHandler().getJournal();
+        long transaction = journal.begin();
+
+        // Encode the item for the journal here, so the economy thread only has to queue the record.
+        buyData.getEncodedStock();
+        PLUGIN.getHandler().getTransactions().purchase(target, payee, buyData.getPrice() * lots,
+                () -> journal.record(JournalRecord.Type.BUY_PAID, transaction, target, islandID, position, buyData, lots),
+                () -> {
+                    boolean delivered = false;
+                    try {
+                        delivered = deliverPurchase(sc, buyData, lots, block, target);
+                    } finally {
+                        // A delivery which throws is refunded as well, so it is settled either way.
+                        if (delivered)
+                            sc.recordPurchase(amount, buyData.getPrice() * lots);
+                        else sc.recordFailure();
+                        journal.record(delivered ? JournalRecord.Type.BUY : JournalRecord.Type.BUY_REFUNDED,
+                                transaction, target, islandID, position, buyData, lots);
+                    }
+                    return delivered;
+                },
+                failure -> {
+                    // Nobody was charged, so give up the reserved stock.
+                    sc.recordFailure();
+                    if (!sc.isAdminShop() && !sc.isDestroyed())
+                        sc.releaseStock(amount);
+                    if (failure == Transactions.Failure.INSUFFICIENT_FUNDS) {
+                        target.playSound(target.getLocation(), Sound.ENTITY_PLAYER_LEVELUP, 0.5F, 0.5F);
+                        target.sendMessage(message(Message.INSUFFICIENT_MONEY));
+                    } else target.sendMessage(message(Message.TRANSACTION_FAILED));
+                });
+    }
+
+    /**
+     * Moves purchased items to a player once they have paid for them.
+     * Runs on the main thread, after the payment was made.
+     *
+     * @param sc      The showcase bought from.
+     * @param buyData The showcase's buying data at the time of purchase.
+     * @param lots    Amount of lots purchased.
+     * @param block   The player showcase's chest block.
+     * @param target  The player who purchased.
+     * @return False if the items could not be delivered. The payment is then refunded.
+     */
+    private boolean deliverPurchase(Showcase sc, PurchaseData buyData, int lots, Block block, Player target) {
+        int amount = buyData.getAmount() * lots;
+
+        // The showcase was removed, or the player left, while the payment was being made.
+        if (sc.isDestroyed() || !target.isOnline()) {
+            if (!sc.isDestroyed() && !sc.isAdminShop())
+                sc.releaseStock(amount);
+            target.sendMessage(message(Message.TRANSACTION_FAILED));
+            return false;
+        }
+
+        if (!sc.isAdminShop()) {
+            // Make sure the stock can still be taken, putting back anything taken if the chest came up short.
+            if (block.getType() != Material.CHEST) {
+                sc.releaseStock(amount);
+                target.sendMessage(message(Message.SHOP_BROKEN));
+                return false;
             }
-        } else {
-            // You cannot buy from this showcase.
-            target.playSound(target.getLocation(), Sound.ENTITY_CAT_HISS, 2F, 2F);
-            Title.showTitle(target, "", NO_BUY, 20, 100, 20);
+            Inventory chest = ((Chest) block.getState()).getBlockInventory();
+            Collection<ItemStack> missing = chest.removeItem(buyData.getStock(lots)).values();
+            if (!missing.isEmpty()) {
+                int taken = amount;
+                for (ItemStack item : missing)
+                    taken -= item.getAmount();
+                if (taken > 0) {
+                    ItemStack putBack = buyData.getStock();
+                    putBack.setAmount(taken);
+                    chest.addItem(putBack);
+                }
+                sc.releaseStock(amount);
+                sc.invalidateStock();
+                target.sendMessage(message(Message.OUT_OF_STOCK));
+                return false;
+            }
+            sc.takeStock(amount);
         }
+
+        // Check if the player's inventory was too full to put the purchased items in.
+        Collection<ItemStack> leftover = target.getInventory().addItem(buyData.getStock(lots)).values();
+        if (leftover.size() > 0) {
+            Island found = solar.rpg.skyblock.Main.instance.main().islands().getIsland(target.getUniqueId());
+            if (found != null) {
+                // Move any leftover items to their Island storage.
+                for (ItemStack item : leftover)
+                    found.inv().getStorage().addItem(item);
+
+                // Notify the island members that a purchased item was put in storage.
+                found.actions().messageAll(message(Message.INVENTORY_FULL));
+            } else
+                for (ItemStack item : leftover)
+                    target.getWorld().dropItem(target.getLocation(), item);
+        }
+
+        // Notify the player.
+        target.playSound(target.getLocation(), Sound.ENTITY_EVOKER_FANGS_ATTACK, 0.7F, 0.5F);
+        Title.showTitle(target, message(Message.BOUGHT), sc.getBuySuccess(lots), 20, 100, 20);
+        return true;
     }
 
     /**
-     * Try and buy this item.
+     * Try and sell one or more lots of this item.
+     * The items are taken straight away, and given back if the payment fails.
      * Requires a dependency on Floating Anvil's Title class.
-     * Requires a dependency on Floating Anvil's Vault hook.
      *
      * @param sc     The target showcase.
      * @param target The clicker.
+     * @param lots   Amount of lots to sell, or ALL_LOTS to sell every whole lot the player has.
+     * @see Transactions
      */
-    private void trySell(Showcase sc, Player target) {
+    void trySell(Showcase sc, Player target, int lots) {
+        // Any title shown from here on replaces the preview.
+        PREVIEWS.remove(target.getUniqueId());
+
         // Check if the showcase is donator only.
         if (sc.isDonatorOnly())
             if (!target.hasPermission("skytopia.donator")) {
-                target.sendMessage(DONATOR_ONLY);
+                target.sendMessage(message(Message.DONATOR_ONLY));
                 return;
             }
 
         if (sc.canSell()) {
-            // Check that the player has sufficient items for this sale.
-            if (target.getInventory().containsAtLeast(sc.getSellData().getStock(), sc.getSellData().getAmount())) {
-                // Remove items from inventory. Credit player's balance.
-                target.getInventory().removeItem(sc.getSellData().getStock());
-                PLUGIN.getHandler().getEconomy().depositPlayer(target, sc.getSellData().getPrice());
-                target.playSound(target.getLocation(), Sound.ENTITY_ENDER_DRAGON_FLAP, 2F, 0.5F);
-                Title.showTitle(target, SOLD, SELL_SUCCESS.replace("x", sc.getSellData().getAmount() + "").replace("y", FORMAT.format(sc.getSellData().getPrice())), 20, 100, 20);
+            // Take every lot in a single pass over the inventory, if the player has enough items.
+            PurchaseData sellData = sc.getSellData();
+            int sold = takeLots(target.getInventory(), sellData, lots);
+            if (sold > 0) {
+                // Credit player's balance once for every lot.
+                String success = sc.getSellSuccess(sold);
+                Location position = sc.getPosition();
+                int islandID = sc.getOwnerID();
+                long transaction = PLUGIN.getHandler().getJournal().begin();
+                PLUGIN.getHandler().getTransactions().payout(target, sellData.getPrice() * sold, () -> {
+                    PLUGIN.getHandler().getJournal().record(JournalRecord.Type.SELL, transaction, target, islandID, position, sellData, sold);
+                    sc.recordSale(sellData.getAmount() * sold, sellData.getPrice() * sold);
+                    target.playSound(target.getLocation(), Sound.ENTITY_ENDER_DRAGON_FLAP, 2F, 0.5F);
+                    Title.showTitle(target, message(Message.SOLD), success, 20, 100, 20);
+                }, () -> {
+                    // The player was not paid, so give the items back.
+                    PLUGIN.getHandler().getJournal().record(JournalRecord.Type.SELL_RETURNED, transaction, target, islandID, position, sellData, sold);
+                    sc.recordFailure();
+                    for (ItemStack item : target.getInventory().addItem(sellData.getStock(sold)).values())
+                        target.getWorld().dropItem(target.getLocation(), item);
+                    target.sendMessage(message(Message.SALE_FAILED));
+                });
             } else {
                 // Notify player that they do not have sufficient items to sell.
+                sc.recordFailure();
                 target.playSound(target.getLocation(), Sound.ENTITY_PLAYER_LEVELUP, 0.5F, 0.5F);
-                target.sendMessage(INSUFFICIENT_ITEMS);
+                target.sendMessage(message(Message.INSUFFICIENT_ITEMS));
             }
         } else {
             // You cannot sell from this showcase.
             target.playSound(target.getLocation(), Sound.ENTITY_CAT_HISS, 2F, 2F);
-            Title.showTitle(target, "", sc.isAdminShop() ? NO_ADMIN_SELL : NO_SELL, 20, 100, 20);
+            Title.showTitle(target, "", message(sc.isAdminShop() ? Message.NO_ADMIN_SELL : Message.NO_SELL), 20, 100, 20);
         }
     }
 
-    @EventHandler
-    public void onDespawn(ItemDespawnEvent event) {
-        // Prevents showcase drops from despawning.
-        if (EXEMPT.contains(event.getEntity()))
-            event.setCancelled(true);
+    /**
+     * Takes lots of stock from an inventory. The inventory's contents are scanned once,
+     * and only the slots holding matching items are touched afterwards.
+     *
+     * @param inv  A player's inventory.
+     * @param data The showcase's selling data.
+     * @param lots Amount of lots to take, or ALL_LOTS to take every whole lot.
+     * @return Amount of lots taken. 0 if there were not enough items, in which case nothing is taken.
+     */
+    private int takeLots(PlayerInventory inv, PurchaseData data, int lots) {
+        ItemStack[] contents = inv.getStorageContents();
+        int[] matching = new int[contents.length];
+        int found = 0, total = 0;
+        for (int i = 0; i < contents.length; i++)
+            if (data.isSimilar(contents[i])) {
+                matching[found++] = i;
+                total += contents[i].getAmount();
+            }
+
+        // Only whole lots are ever taken.
+        if (lots == ALL_LOTS)
+            lots = total / data.getAmount();
+        int remaining = data.getAmount() * lots;
+        if (lots <= 0 || total < remaining) return 0;
+        for (int i = 0; i < found && remaining > 0; i++) {
+            ItemStack stack = contents[matching[i]];
+            int take = Math.min(remaining, stack.getAmount());
+            remaining -= take;
+            if (take == stack.getAmount())
+                inv.setItem(matching[i], null);
+            else {
+                stack.setAmount(stack.getAmount() - take);
+                inv.setItem(matching[i], stack);
+            }
+        }
+        return lots;
     }
 
     @EventHandler
     public void onBreak(BlockBreakEvent event) {
         // Prevents players from breaking existing showcase blocks in the island world.
-        if (!event.getBlock().getWorld().getName().equals(Settings.ADMIN_WORLD_ID)) return;
-        if (!CLICKSPACE.containsKey(event.getBlock().getLocation())) return;
+        Block broken = event.getBlock();
+        if (!isOccupied(broken)) return;
+        if (!broken.getWorld().getName().equals(Settings.ADMIN_WORLD_ID)) return;
+        if (CLICKSPACE.get(BlockKey.of(broken)) == null) return;
         event.setCancelled(true);
     }
 
@@ -308,29 +455,75 @@ public abstract class ShopListener implements Listener {
     public void onClick(PlayerInteractEvent event) {
         // Check for an instance of a valid click on a showcase.
         if (event.getHand() == EquipmentSlot.OFF_HAND) return;
-        if (event.getClickedBlock() == null) return;
-        if (!CLICKSPACE.containsKey(event.getClickedBlock().getLocation())) return;
+        Block clicked = event.getClickedBlock();
+        if (clicked == null) return;
+        if (!isOccupied(clicked)) return;
+        Showcase found = CLICKSPACE.get(BlockKey.of(clicked));
+        if (found == null) return;
 
         // Ignore if this is a player-based showcase that they own.
-        Showcase found = CLICKSPACE.get(event.getClickedBlock().getLocation());
-        if (!found.isAdminShop()) {
-            Island at = solar.rpg.skyblock.Main.instance.main().islands().getIslandAt(event.getClickedBlock().getLocation());
-            if (at.members().isMember(event.getPlayer().getUniqueId())) return;
-        }
+        if (isOwnShowcase(found, event.getPlayer())) return;
 
         // Cancel the event and process the showcase interaction.
         event.setCancelled(true);
+        Player player = event.getPlayer();
+        boolean buy;
+        if (event.getAction() == Action.LEFT_CLICK_BLOCK) buy = true;
+        else if (event.getAction() == Action.RIGHT_CLICK_BLOCK) buy = false;
+        else return;
+
+        if (player.isSneaking()) {
+            // Either buy or sell. The result replaces any preview on screen.
+            if (!PLUGIN.getHandler().getTransactionThrottle().tryAcquire(player.getUniqueId())) return;
+            if (buy)
+                tryBuy(found, player, 1);
+            else trySell(found, player, 1);
+        } else {
+            // Preview the buy or sell price, unless it is already on screen.
+            if (isShowingPreview(found, player, buy)) return;
+            if (!PLUGIN.getHandler().getPreviewThrottle().tryAcquire(player.getUniqueId())) {
+                // The preview was not shown, so do not skip the next one.
+                PREVIEWS.remove(player.getUniqueId());
+                return;
+            }
+            if (buy)
+                previewBuy(found, player);
+            else previewSell(found, player);
+        }
+    }
+
+    @EventHandler
+    public void onJoin(PlayerJoinEvent event) {
+        // Load the player showcases of the player's island, if they are not loaded already.
+        Island island = solar.rpg.skyblock.Main.instance.main().islands().getIsland(event.getPlayer().getUniqueId());
+        if (island != null)
+            PLUGIN.getHandler().loadIsland(island.getID());
+    }
+
+    @EventHandler
+    public void onQuit(PlayerQuitEvent event) {
+        // Forget everything kept about the player's interactions.
+        UUID id = event.getPlayer().getUniqueId();
+        PREVIEWS.remove(id);
+        PLUGIN.getHandler().getPreviewThrottle().forget(id);
+        PLUGIN.getHandler().getTransactionThrottle().forget(id);
+        PLUGIN.getHandler().getIslandCache().forget(id);
+    }
+
+    /**
+     * A preview title shown to a player.
+     */
+    private static final class Preview {
+
+        private final Showcase SHOWCASE;
+        private final boolean BUY;
+        /* Time the preview was shown, in milliseconds. */
+        private final long SHOWN;
 
-        if (event.getAction() == Action.LEFT_CLICK_BLOCK) {
-            // Either buy or preview the buy price.
-            if (event.getPlayer().isSneaking())
-                tryBuy(found, event.getPlayer());
-            else previewBuy(found, event.getPlayer());
-        } else if (event.getAction() == Action.RIGHT_CLICK_BLOCK) {
-            // Either sell or preview the sell price.
-            if (event.getPlayer().isSneaking())
-                trySell(found, event.getPlayer());
-            else previewSell(found, event.getPlayer());
+        private Preview(Showcase SHOWCASE, boolean BUY, long SHOWN) {
+            this.SHOWCASE = SHOWCASE;
+            this.BUY = BUY;
+            this.SHOWN = SHOWN;
         }
     }
 }
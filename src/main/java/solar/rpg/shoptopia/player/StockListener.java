@@ -0,0 +1,85 @@
+package solar.rpg.shoptopia.player;
+
+import org.bukkit.Location;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.DoubleChestInventory;
+import org.bukkit.inventory.Inventory;
+import solar.rpg.shoptopia.Main;
+import solar.rpg.shoptopia.data.BlockKey;
+import solar.rpg.shoptopia.data.Showcase;
+
+/**
+ * Keeps the cached stock of player showcases honest.
+ * Whenever the contents of a player showcase's chest may have changed,
+ * whether by a player or by a hopper, the showcase's cached stock is
+ * invalidated so that it is counted again on the next check.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see Showcase#getStock()
+ * @since 1.1
+ */
+public class StockListener implements Listener {
+
+    /* Reference to JavaPlugin. */
+    private final Main PLUGIN;
+
+    public StockListener(Main PLUGIN) {
+        this.PLUGIN = PLUGIN;
+        PLUGIN.getServer().getPluginManager().registerEvents(this, PLUGIN);
+    }
+
+    /**
+     * Invalidates the cached stock of a player showcase, if the inventory is its chest.
+     *
+     * @param inv An inventory.
+     */
+    private void invalidate(Inventory inv) {
+        if (inv.getType() != InventoryType.CHEST) return;
+
+        // A chest can be placed next to a showcase chest after the showcase was made.
+        // A double chest's location is between its halves, so check each half instead.
+        if (inv instanceof DoubleChestInventory) {
+            invalidate(((DoubleChestInventory) inv).getLeftSide());
+            invalidate(((DoubleChestInventory) inv).getRightSide());
+            return;
+        }
+        Location loc = inv.getLocation();
+        if (loc == null || loc.getWorld() == null) return;
+        if (!PLUGIN.getHandler().getChunkIndex().isOccupied(loc.getWorld(), loc.getBlockX() >> 4, loc.getBlockZ() >> 4))
+            return;
+
+        // The chest below a showcase is part of its clickspace.
+        Showcase found = PLUGIN.getShopListener().getClickspace().get(BlockKey.of(loc));
+        if (found != null && !found.isAdminShop())
+            found.invalidateStock();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onHopperMove(InventoryMoveItemEvent event) {
+        invalidate(event.getSource());
+        invalidate(event.getDestination());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onClick(InventoryClickEvent event) {
+        invalidate(event.getView().getTopInventory());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onDrag(InventoryDragEvent event) {
+        invalidate(event.getView().getTopInventory());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onClose(InventoryCloseEvent event) {
+        invalidate(event.getView().getTopInventory());
+    }
+}
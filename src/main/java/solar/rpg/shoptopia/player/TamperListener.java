@@ -0,0 +1,81 @@
+package solar.rpg.shoptopia.player;
+
+import org.bukkit.entity.Item;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.ItemDespawnEvent;
+import org.bukkit.event.entity.ItemMergeEvent;
+import org.bukkit.event.entity.ItemSpawnEvent;
+import org.bukkit.event.inventory.InventoryPickupItemEvent;
+import solar.rpg.shoptopia.Main;
+import solar.rpg.shoptopia.data.ChunkIndex;
+import solar.rpg.shoptopia.data.Handler;
+import solar.rpg.shoptopia.data.Showcase;
+
+/**
+ * Guards showcase item drops from tampering, for both admin and player showcases.
+ * Rather than scanning worlds for items, this only reacts to the few events that
+ * can actually interfere with a showcase drop. Showcase drops carry a persistent
+ * data tag, so most checks are a single tag lookup on the entity. The rest cost a
+ * single probe of the chunk index, which is empty for almost every chunk.
+ *
+ * @author lavuh
+ * @version 1.1
+ * @see ChunkIndex
+ * @since 1.1
+ */
+public class TamperListener implements Listener {
+
+    /* Reference to JavaPlugin. */
+    private final Main PLUGIN;
+
+    public TamperListener(Main PLUGIN) {
+        this.PLUGIN = PLUGIN;
+        PLUGIN.getServer().getPluginManager().registerEvents(this, PLUGIN);
+    }
+
+    /**
+     * @param item An item drop.
+     * @return True if the item drop is on display on a showcase.
+     */
+    private boolean isLiveShowcaseDrop(Item item) {
+        Showcase sc = PLUGIN.getHandler().getChunkIndex().getShowcaseAt(item.getLocation());
+        return sc != null && item.equals(sc.getShowcaseDrop());
+    }
+
+    @EventHandler(ignoreCancelled = true)
+    public void onDespawn(ItemDespawnEvent event) {
+        // Prevents showcase drops from despawning.
+        if (!PLUGIN.getHandler().isShowcaseDrop(event.getEntity())) return;
+
+        // Drops left behind by showcases that no longer exist are allowed to despawn.
+        if (isLiveShowcaseDrop(event.getEntity()))
+            event.setCancelled(true);
+    }
+
+    @EventHandler(ignoreCancelled = true)
+    public void onItemSpawn(ItemSpawnEvent event) {
+        Showcase sc = PLUGIN.getHandler().getChunkIndex().getShowcaseAt(event.getLocation());
+        if (sc == null || sc.isRespawning()) return;
+
+        // Remove items of same type on top of showcase to prevent tampering.
+        // The showcase's own display is left untouched, so there is nothing to respawn.
+        if (sc.getIconType() == event.getEntity().getItemStack().getType())
+            event.setCancelled(true);
+    }
+
+    @EventHandler(ignoreCancelled = true)
+    public void onItemMerge(ItemMergeEvent event) {
+        // Showcase drops must never absorb, or be absorbed by, another item.
+        Handler handler = PLUGIN.getHandler();
+        if (handler.isShowcaseDrop(event.getEntity()) || handler.isShowcaseDrop(event.getTarget()))
+            event.setCancelled(true);
+    }
+
+    @EventHandler(ignoreCancelled = true)
+    public void onHopperPickup(InventoryPickupItemEvent event) {
+        // Prevents hoppers and hopper minecarts from collecting showcase drops.
+        if (PLUGIN.getHandler().isShowcaseDrop(event.getItem()))
+            event.setCancelled(true);
+    }
+}